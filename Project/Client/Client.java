@@ -1,10 +1,14 @@
 package Project.Client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.CompletableFuture;
@@ -12,6 +16,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import Project.Common.FlipPayload;
+import Project.Common.HistoryPayload;
 import Project.Common.RollPayload;
 import Project.Client.Interfaces.IConnectionEvents;
 import Project.Client.Interfaces.IClientEvents;
@@ -21,8 +26,16 @@ import Project.Client.Views.UserListPanel;
 import Project.Common.ConnectionPayload;
 import Project.Common.LoggerUtil;
 import Project.Common.Payload;
+import Project.Common.PayloadCodec;
+import Project.Common.PayloadFraming;
+import Project.Common.ResettingObjectOutputStream;
 import Project.Common.PayloadType;
+import Project.Common.PresenceDeltaPayload;
+import Project.Common.ReconnectPayload;
+import Project.Common.RoomQueryPayload;
 import Project.Common.RoomResultsPayload;
+import Project.Common.RoomSnapshotPayload;
+import Project.Common.SearchResultsPayload;
 import Project.Common.TextFX;
 import Project.Common.TextFX.Color;
 
@@ -47,8 +60,12 @@ public enum Client {
         LoggerUtil.INSTANCE.setConfig(config);
     }
     private Socket server = null;
-    private ObjectOutputStream out = null;
+    private ResettingObjectOutputStream out = null;
     private ObjectInputStream in = null;
+    // used instead of out/in when the server speaks length-prefixed frames
+    private DataOutputStream framedOut = null;
+    private DataInputStream framedIn = null;
+    private PayloadCodec codec = null; // picked from the server's hello
     final Pattern ipAddressPattern = Pattern
             .compile("/connect\\s+(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}:\\d{3,5})");
     final Pattern localhostPattern = Pattern.compile("/connect\\s+(localhost:\\d{3,5})");
@@ -56,12 +73,24 @@ public enum Client {
     private ConcurrentHashMap<Long, ClientData> knownClients = new ConcurrentHashMap<>();
     private ClientData myData;
     private UserListPanel userListPanel;
+    // room search paging
+    public static final int ROOM_PAGE_SIZE = 50;
+    private String roomQuery = null;
+    private String roomCursor = null; // next page of roomQuery, null when there's no more
+    private boolean roomQueryContinued = false;
+    // membership version of the room we're in, reported back when we reconnect after a drop
+    private volatile String roomName = null;
+    private volatile long roomEpoch = 0;
+    private volatile long roomVersion = -1; // -1 until the room tells us
+    private volatile boolean isResuming = false; // waiting for the resync of a reconnect
 
     // constants (used to reduce potential types when using them in code)
     private final String COMMAND_CHARACTER = "/";
     private final String CREATE_ROOM = "createroom";
     private final String JOIN_ROOM = "joinroom";
     private final String LIST_ROOMS = "listrooms";
+    private final String SEARCH = "search";
+    private final String ANNOUNCE = "announce";
     private final String DISCONNECT = "disconnect";
     private final String LOGOFF = "logoff";
     private final String LOGOUT = "logout";
@@ -121,10 +150,7 @@ public enum Client {
     private boolean connect(String address, int port) {
         try {
             server = new Socket(address, port);
-            // channel to send to server
-            out = new ObjectOutputStream(server.getOutputStream());
-            // channel to listen to server
-            in = new ObjectInputStream(server.getInputStream());
+            openStreams();
             LoggerUtil.INSTANCE.info("Client connected");
             // Use CompletableFuture to run listenToServer() in a separate thread
             CompletableFuture.runAsync(this::listenToServer);
@@ -150,10 +176,7 @@ public enum Client {
         Client.events = callback;
         try {
             server = new Socket(address, port);
-            // channel to send to server
-            out = new ObjectOutputStream(server.getOutputStream());
-            // channel to listen to server
-            in = new ObjectInputStream(server.getInputStream());
+            openStreams();
             LoggerUtil.INSTANCE.info("Client connected");
             // Use CompletableFuture to run listenToServer() in a separate thread
             CompletableFuture.runAsync(this::listenToServer);
@@ -166,6 +189,45 @@ public enum Client {
         return isConnected();
     }
 
+    /**
+     * Sets up the channels to/from the server.
+     * The first bytes the server sends tell us which protocol it speaks: a
+     * framed server sends PayloadFraming.MAGIC and the codecs it accepts, a
+     * classic server sends the ObjectOutputStream header.
+     * 
+     * @throws IOException
+     */
+    private void openStreams() throws IOException {
+        framedIn = null;
+        framedOut = null;
+        codec = null;
+        BufferedInputStream serverIn = new BufferedInputStream(server.getInputStream());
+        serverIn.mark(Short.BYTES);
+        int first = serverIn.read();
+        int second = serverIn.read();
+        if (first < 0 || second < 0) {
+            throw new IOException("Server closed the connection during handshake");
+        }
+        serverIn.reset();
+        if (PayloadFraming.isFramed((first << 8) | second)) {
+            framedIn = new DataInputStream(serverIn);
+            if (framedIn.readInt() != PayloadFraming.MAGIC) {
+                throw new IOException("Unrecognized server protocol");
+            }
+            codec = PayloadFraming.negotiate(framedIn.readUnsignedByte());
+            framedOut = new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
+            framedOut.writeByte(codec.getId());
+            framedOut.flush();
+            LoggerUtil.INSTANCE.info("Server uses framed protocol, codec: %s", codec.getName());
+            return;
+        }
+        // channel to send to server
+        // resets on a budget so the handle table doesn't keep every payload reachable
+        out = new ResettingObjectOutputStream(server.getOutputStream());
+        // channel to listen to server
+        in = new ObjectInputStream(serverIn);
+    }
+
     /**
      * <p>
      * Check if the string contains the <i>connect</i> command
@@ -315,6 +377,14 @@ public enum Client {
                         sendListRooms(commandValue);
                         wasCommand = true;
                         break;
+                    case SEARCH:
+                        sendSearch(commandValue);
+                        wasCommand = true;
+                        break;
+                    case ANNOUNCE:
+                        sendAnnounce(commandValue);
+                        wasCommand = true;
+                        break;
                     
                     // Note: these are to disconnect, they're not for changing rooms
                     case DISCONNECT:
@@ -375,9 +445,32 @@ public enum Client {
      * @throws IOException
      */
     public void sendListRooms(String roomQuery) throws IOException {
-        Payload p = new Payload();
-        p.setPayloadType(PayloadType.ROOM_LIST);
+        this.roomQuery = roomQuery;
+        roomCursor = null;
+        roomQueryContinued = false;
+        sendRoomQuery(roomQuery, null);
+    }
+
+    /**
+     * Requests the next page of the last room search
+     * 
+     * @return false if there's nothing more to fetch
+     * @throws IOException
+     */
+    public boolean sendListMoreRooms() throws IOException {
+        if (roomCursor == null) {
+            return false;
+        }
+        roomQueryContinued = true;
+        sendRoomQuery(roomQuery, roomCursor);
+        return true;
+    }
+
+    private void sendRoomQuery(String roomQuery, String cursor) throws IOException {
+        RoomQueryPayload p = new RoomQueryPayload();
         p.setMessage(roomQuery);
+        p.setLimit(ROOM_PAGE_SIZE);
+        p.setCursor(cursor);
         send(p);
     }
 
@@ -394,6 +487,33 @@ public enum Client {
         send(p);
     }
 
+    /**
+     * Searches the messages said in the current room; every word has to match
+     * 
+     * @param query
+     * @throws IOException
+     */
+    public void sendSearch(String query) throws IOException {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.SEARCH);
+        p.setMessage(query);
+        send(p);
+    }
+
+    /**
+     * Sends a message to everyone in the lobby rather than only our lobby
+     * shard
+     * 
+     * @param message
+     * @throws IOException
+     */
+    public void sendAnnounce(String message) throws IOException {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.ANNOUNCE);
+        p.setMessage(message);
+        send(p);
+    }
+
     /**
      * Sends the room name we intend to join
      * 
@@ -446,7 +566,18 @@ public enum Client {
             System.out.println(TextFX.colorize("Name must be set first via /name command", Color.RED));
             return;
         }
-        ConnectionPayload cp = new ConnectionPayload();
+        ConnectionPayload cp;
+        if (roomName != null && roomVersion >= 0) {
+            // we dropped, ask for what changed in our room instead of the whole member list
+            ReconnectPayload rp = new ReconnectPayload();
+            rp.setMessage(roomName);
+            rp.setRoomEpoch(roomEpoch);
+            rp.setRoomVersion(roomVersion);
+            cp = rp;
+            isResuming = true;
+        } else {
+            cp = new ConnectionPayload();
+        }
         cp.setClientName(myData.getClientName());
         send(cp);
     }
@@ -459,7 +590,12 @@ public enum Client {
      */
     private void send(Payload p) throws IOException {
         try {
-            out.writeObject(p);
+            if (framedOut != null) {
+                framedOut.write(PayloadFraming.encode(p, codec));
+                framedOut.flush();
+                return;
+            }
+            out.writePayload(p);
             out.flush();
         } catch (IOException e) {
             LoggerUtil.INSTANCE.severe("Socket send exception", e);
@@ -488,7 +624,8 @@ public enum Client {
     private void listenToServer() {
         try {
             while (isRunning && isConnected()) {
-                Payload fromServer = (Payload) in.readObject(); // blocking read
+                Payload fromServer = framedIn != null ? PayloadFraming.read(framedIn, codec)
+                        : (Payload) in.readObject(); // blocking read
                 if (fromServer != null) {
                     // System.out.println(fromServer);
                     processPayload(fromServer);
@@ -504,7 +641,7 @@ public enum Client {
                 LoggerUtil.INSTANCE.info("Connection dropped", e);
             }
         } finally {
-            closeServerConnection();
+            closeServerConnection(true);
         }
         LoggerUtil.INSTANCE.info("listenToServer thread stopped");
     }
@@ -549,8 +686,31 @@ public enum Client {
      * Closes the server connection and associated resources
      */
     private void closeServerConnection() {
+        closeServerConnection(false);
+    }
+
+    /**
+     * Closes the server connection and associated resources
+     * 
+     * @param canResume true if the connection dropped (rather than us leaving),
+     *                  the room's members are kept so a reconnect only needs
+     *                  what changed since
+     */
+    private void closeServerConnection(boolean canResume) {
+        long myId = myData.getClientId();
+        if (canResume && isRunning && myId != ClientData.DEFAULT_CLIENT_ID && roomName != null
+                && roomVersion >= 0) {
+            // we'll come back with a new id
+            if (knownClients.remove(myId) != null) {
+                ((IConnectionEvents) events).onRemoveClients(new long[] { myId });
+            }
+        } else {
+            knownClients.clear();
+            roomName = null;
+            roomVersion = -1;
+        }
+        isResuming = false;
         myData.reset();
-        knownClients.clear();
         try {
             if (out != null) {
                 LoggerUtil.INSTANCE.info("Closing output stream");
@@ -567,6 +727,16 @@ public enum Client {
         } catch (Exception e) {
             LoggerUtil.INSTANCE.info("Error closing input stream", e);
         }
+        try {
+            if (framedOut != null) {
+                LoggerUtil.INSTANCE.info("Closing framed streams");
+                framedOut.close();
+                framedIn.close();
+            }
+        } catch (Exception e) {
+            LoggerUtil.INSTANCE.info("Error closing framed streams", e);
+        }
+
         try {
             if (server != null) {
                 LoggerUtil.INSTANCE.info("Closing connection");
@@ -594,7 +764,7 @@ public enum Client {
      */
     private void processPayload(Payload payload) {
         try {
-            LoggerUtil.INSTANCE.info("Received Payload: " + payload);
+            LoggerUtil.INSTANCE.info("Received Payload: %s", payload);
             switch (payload.getPayloadType()) {
                 case PayloadType.CLIENT_ID: // get id assigned
                     ConnectionPayload cp = (ConnectionPayload) payload;
@@ -615,11 +785,23 @@ public enum Client {
                     break;
                 case PayloadType.ROOM_LIST:
                     RoomResultsPayload rrp = (RoomResultsPayload) payload;
-                    processRoomsList(rrp.getRooms(), rrp.getMessage());
+                    processRoomsList(rrp.getRooms(), rrp.getMessage(), rrp.getCursor());
                     break;
                 case PayloadType.MESSAGE: // displays a received message
                     processMessage(payload.getClientId(), payload.getMessage());
                     break;
+                case PayloadType.HISTORY: // recent messages of a room we just joined
+                    processHistory((HistoryPayload) payload);
+                    break;
+                case PayloadType.SEARCH:
+                    processSearchResults((SearchResultsPayload) payload);
+                    break;
+                case PayloadType.PRESENCE: // batched joins/leaves of a busy room
+                    processPresenceDelta((PresenceDeltaPayload) payload);
+                    break;
+                case PayloadType.ROOM_SNAPSHOT: // silent sync of who's in the room (or what changed since a drop)
+                    processRoomSnapshot((RoomSnapshotPayload) payload);
+                    break;
                 default:
                     break;
             }
@@ -645,9 +827,11 @@ public enum Client {
     }
 
     // payload processors
-    private void processRoomsList(List<String> rooms, String message) {
-        // invoke onReceiveRoomList callback
-        ((IRoomEvents) events).onReceiveRoomList(rooms, message);
+    private void processRoomsList(List<String> rooms, String message, String cursor) {
+        boolean isFirstPage = !roomQueryContinued;
+        roomCursor = cursor;
+        // invoke onReceiveRoomPage callback
+        ((IRoomEvents) events).onReceiveRoomPage(rooms, message, isFirstPage, cursor != null);
         if (rooms == null || rooms.size() == 0) {
             System.out.println(
                     TextFX.colorize("No rooms found matching your query",
@@ -704,6 +888,27 @@ public enum Client {
         userListPanel.highlightUser(clientId);
     }
 
+    private void processHistory(HistoryPayload history) {
+        for (int i = 0; i < history.size(); i++) {
+            String name = history.getClientName(i) == null ? "Room" : history.getClientName(i);
+            System.out.println(TextFX.colorize(String.format("%s: %s", name, history.getMessage(i)), Color.BLUE));
+        }
+        // invoke onMessageHistory callback
+        ((IMessageEvents) events).onMessageHistory(history);
+    }
+
+    private void processSearchResults(SearchResultsPayload results) {
+        System.out.println(TextFX.colorize(
+                String.format("Search results for \"%s\" (%s):", results.getMessage(), results.size()), Color.PURPLE));
+        for (int i = 0; i < results.size(); i++) {
+            String name = results.getClientName(i) == null ? "[" + results.getClientId(i) + "]"
+                    : results.getClientName(i);
+            System.out.println(String.format("#%s %s: %s", results.getRoom(i), name, results.getMessage(i)));
+        }
+        // invoke onSearchResults callback
+        ((IMessageEvents) events).onSearchResults(results);
+    }
+
     private long getClientIdFromName(String username) {
         for (ClientData client : knownClients.values()) {
             if (client.getClientName().equals(username)) {
@@ -729,9 +934,75 @@ public enum Client {
         }
     }
 
-    private void processRoomAction(long clientId, String clientName, String message, boolean isJoin) {
+    private void processRoomSnapshot(RoomSnapshotPayload snapshot) {
+        roomEpoch = snapshot.getRoomEpoch();
+        roomVersion = Math.max(roomVersion, snapshot.getRoomVersion());
+        // a full snapshot after a reconnect replaces the members we kept
+        boolean isReset = isResuming && !snapshot.isDelta();
+        isResuming = false;
+        long[] ids = new long[snapshot.size() + 1];
+        String[] names = new String[ids.length];
+        int added = 0;
+        if (isReset) {
+            long myId = myData.getClientId();
+            knownClients.keySet().removeIf(id -> id != myId);
+            ((IConnectionEvents) events).onResetUserList();
+            ClientData me = knownClients.get(myId);
+            if (me != null) {
+                ids[added] = myId;
+                names[added] = me.getClientName();
+                added++;
+            }
+        }
+        if (snapshot.getRemovedCount() > 0) {
+            long[] removed = new long[snapshot.getRemovedCount()];
+            int count = 0;
+            for (int i = 0; i < snapshot.getRemovedCount(); i++) {
+                if (knownClients.remove(snapshot.getRemovedId(i)) != null) {
+                    removed[count++] = snapshot.getRemovedId(i);
+                }
+            }
+            if (count > 0) {
+                ((IConnectionEvents) events).onRemoveClients(Arrays.copyOf(removed, count));
+            }
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            long clientId = snapshot.getClientId(i);
+            if (!knownClients.containsKey(clientId)) {
+                ClientData cd = new ClientData();
+                cd.setClientId(clientId);
+                cd.setClientName(snapshot.getClientName(i));
+                knownClients.put(clientId, cd);
+                ids[added] = clientId;
+                names[added] = snapshot.getClientName(i);
+                added++;
+            }
+        }
+        if (added > 0) {
+            // invoke onSyncClients callback once for the whole chunk
+            ((IConnectionEvents) events).onSyncClients(Arrays.copyOf(ids, added), Arrays.copyOf(names, added));
+        }
+    }
 
+    private void processPresenceDelta(PresenceDeltaPayload delta) {
+        if (roomVersion >= 0 && delta.getMessage() != null && delta.getMessage().equalsIgnoreCase(roomName)) {
+            roomVersion = Math.max(roomVersion, delta.getRoomVersion());
+        }
+        for (int i = 0; i < delta.getLeaveCount(); i++) {
+            processRoomAction(delta.getLeftId(i), delta.getLeftName(i), delta.getMessage(), false);
+        }
+        for (int i = 0; i < delta.getJoinCount(); i++) {
+            processRoomAction(delta.getJoinedId(i), delta.getJoinedName(i), delta.getMessage(), true);
+        }
+    }
+
+    private void processRoomAction(long clientId, String clientName, String message, boolean isJoin) {
         if (isJoin && !knownClients.containsKey(clientId)) {
+            if (clientId == myData.getClientId()) {
+                // the room's snapshot will tell us its version
+                roomName = message;
+                roomVersion = -1;
+            }
             ClientData cd = new ClientData();
             cd.setClientId(clientId);
             cd.setClientName(clientName);
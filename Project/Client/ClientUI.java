@@ -28,6 +28,8 @@ import Project.Client.Views.Menu;
 import Project.Client.Views.RoomsPanel;
 import Project.Client.Views.UserDetailsPanel;
 import Project.Client.Views.UserListPanel;
+import Project.Common.HistoryPayload;
+import Project.Common.SearchResultsPayload;
 import Project.Common.LoggerUtil;
 
 
@@ -166,7 +168,7 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
                 break;
             }
         }
-        LoggerUtil.INSTANCE.fine("Current panel: " + currentCardPanel.getName());
+        LoggerUtil.INSTANCE.fine("Current panel: %s", currentCardPanel.getName());
     }
 
 
@@ -231,6 +233,25 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
         }
     }
 
+    @Override
+    public void onMessageHistory(HistoryPayload history) {
+        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+            // names come from the history since the senders may no longer be in the room
+            for (int i = 0; i < history.size(); i++) {
+                String clientName = history.getClientName(i) == null ? "Room" : history.getClientName(i);
+                chatPanel.addText(String.format("%s[%s]: %s", clientName, history.getClientId(i),
+                        history.getMessage(i)));
+            }
+        }
+    }
+
+    @Override
+    public void onSearchResults(SearchResultsPayload results) {
+        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+            chatPanel.addSearchResults(results);
+        }
+    }
+
     public void onMessageReceive(long clientId, String message) {
         if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
             String clientName = Client.INSTANCE.getClientNameFromId(clientId);
@@ -292,10 +313,33 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
         }
     }
 
+    @Override
+    public void onRemoveClients(long[] clientIds) {
+        chatPanel.removeUserListItems(clientIds);
+    }
+
+    @Override
+    public void onSyncClients(long[] clientIds, String[] clientNames) {
+        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+            String[] labels = new String[clientIds.length];
+            for (int i = 0; i < clientIds.length; i++) {
+                labels[i] = String.format("%s (%s)", clientNames[i], clientIds[i]);
+            }
+            chatPanel.addUserListItems(clientIds, labels);
+        }
+    }
+
 
     @Override
     public void onReceiveRoomList(List<String> rooms, String message) {
-        roomsPanel.removeAllRooms();
+        onReceiveRoomPage(rooms, message, true, false);
+    }
+
+    @Override
+    public void onReceiveRoomPage(List<String> rooms, String message, boolean isFirstPage, boolean hasMore) {
+        if (isFirstPage) {
+            roomsPanel.removeAllRooms();
+        }
         if (message != null && !message.isEmpty()) {
             roomsPanel.setMessage(message);
         }
@@ -304,12 +348,13 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
                 roomsPanel.addRoom(room);
             }
         }
+        roomsPanel.setHasMore(hasMore);
     }
 
 
     @Override
     public void onRoomAction(long clientId, String clientName, String roomName, boolean isJoin) {
-        LoggerUtil.INSTANCE.info("Current card: " + currentCard.name());
+        LoggerUtil.INSTANCE.info("Current card: %s", currentCard.name());
         if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
             boolean isMe = clientId == Client.INSTANCE.getMyClientId();
             String message = String.format("*%s %s the Room %s*",
@@ -29,6 +29,27 @@ public interface IConnectionEvents extends IClientEvents {
      */
     void onSyncClient(long id, String clientName);
 
+    /**
+     * Used to sync many existing clients at once, like the members of a room
+     * we just joined. Defaults to calling onSyncClient() for each one.
+     *
+     * @param ids         The client IDs.
+     * @param clientNames The client names, same order as the IDs.
+     */
+    default void onSyncClients(long[] ids, String[] clientNames) {
+        for (int i = 0; i < ids.length; i++) {
+            onSyncClient(ids[i], clientNames[i]);
+        }
+    }
+
+    /**
+     * Used to drop clients that left while we weren't looking, like the ones
+     * that left our room while we were reconnecting. Nothing is announced.
+     *
+     * @param ids The client IDs.
+     */
+    void onRemoveClients(long[] ids);
+
     /**
      * Triggered when we need to clear the user list, likely during a room
      * transition.
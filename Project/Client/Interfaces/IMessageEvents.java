@@ -1,5 +1,8 @@
 package Project.Client.Interfaces;
 
+import Project.Common.HistoryPayload;
+import Project.Common.SearchResultsPayload;
+
 /**
  * Interface for handling message events.
  */
@@ -11,4 +14,24 @@ public interface IMessageEvents extends IClientEvents {
      * @param message The message.
      */
     void onMessageReceive(long id, String message);
+
+    /**
+     * Triggered when joining a room that already has recent messages.
+     * The senders may have left already, so their names come with the entries.
+     *
+     * @param history The messages, oldest first.
+     */
+    default void onMessageHistory(HistoryPayload history) {
+        for (int i = 0; i < history.size(); i++) {
+            onMessageReceive(history.getClientId(i), history.getMessage(i));
+        }
+    }
+
+    /**
+     * Triggered when the results of a /search arrive.
+     *
+     * @param results The matching messages, newest first.
+     */
+    default void onSearchResults(SearchResultsPayload results) {
+    }
 }
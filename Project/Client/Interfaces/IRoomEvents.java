@@ -15,6 +15,19 @@ public interface IRoomEvents extends IClientEvents {
      */
     void onReceiveRoomList(List<String> rooms, String message);
 
+    /**
+     * Received one page of a room search from the server.
+     *
+     * @param rooms       Page of rooms (prefix matches first) or null if error.
+     * @param message     A message related to the action, may be null.
+     * @param isFirstPage True for a new search, false when it continues the
+     *                    previous one.
+     * @param hasMore     True if another page can be requested.
+     */
+    default void onReceiveRoomPage(List<String> rooms, String message, boolean isFirstPage, boolean hasMore) {
+        onReceiveRoomList(rooms, message);
+    }
+
     /**
      * Receives the room name when the client is added to the room.
      *
@@ -16,6 +16,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -31,6 +33,7 @@ import Project.Client.CardView;
 import Project.Client.Client;
 import Project.Client.Interfaces.ICardControls;
 import Project.Common.LoggerUtil;
+import Project.Common.SearchResultsPayload;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
@@ -183,6 +186,16 @@ public class ChatPanel extends JPanel {
         SwingUtilities.invokeLater(() -> userListPanel.addUserListItem(clientId, clientName));
     }
 
+    /**
+     * Adds many users to the user list in one batch.
+     * 
+     * @param clientIds   The IDs of the clients.
+     * @param clientNames The names of the clients, same order as the IDs.
+     */
+    public void addUserListItems(long[] clientIds, String[] clientNames) {
+        userListPanel.addUserListItems(clientIds, clientNames);
+    }
+
     /**
      * Removes a user from the user list.
      * 
@@ -192,6 +205,15 @@ public class ChatPanel extends JPanel {
         SwingUtilities.invokeLater(() -> userListPanel.removeUserListItem(clientId));        
     }
 
+    /**
+     * Removes many users from the user list in one batch.
+     * 
+     * @param clientIds The IDs of the clients to be removed.
+     */
+    public void removeUserListItems(long[] clientIds) {
+        userListPanel.removeUserListItems(clientIds);
+    }
+
     /**
      * Clears the user list.
      */
@@ -225,6 +247,29 @@ public class ChatPanel extends JPanel {
         } 
     }
    
+    /**
+     * Adds the results of a /search to the chat area as one block.
+     * 
+     * @param results The matching messages, newest first.
+     */
+    public void addSearchResults(SearchResultsPayload results) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd HH:mm");
+        StringBuilder html = new StringBuilder();
+        html.append(String.format("<i>Search results for \"%s\" (%s)</i>",
+                escape(results.getMessage()), results.size()));
+        for (int i = 0; i < results.size(); i++) {
+            String name = results.getClientName(i) == null ? String.format("[%s]", results.getClientId(i))
+                    : String.format("%s[%s]", results.getClientName(i), results.getClientId(i));
+            html.append(String.format("<br>[%s] #%s %s: %s", dateFormat.format(new Date(results.getTimestamp(i))),
+                    escape(results.getRoom(i)), escape(name), results.getMessage(i)));
+        }
+        addText(html.toString());
+    }
+
+    private static String escape(String text) {
+        return text == null ? "" : text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
     /**
      * Adds a message to the chat area.
      * 
@@ -34,6 +34,7 @@ public class RoomsPanel extends JPanel {
     private final JPanel container;
     private final List<RoomListItem> rooms = new ArrayList<>();
     private final JLabel message;
+    private final JButton moreButton;
 
     /**
      * Constructor to create the RoomsPanel UI.
@@ -125,11 +126,29 @@ public class RoomsPanel extends JPanel {
             });
         });
 
+        // next page of the current search, only enabled while the server has more
+        moreButton = new JButton("More");
+        moreButton.setEnabled(false);
+        moreButton.addActionListener(event -> {
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    moreButton.setEnabled(false);
+                    if (!Client.INSTANCE.sendListMoreRooms()) {
+                        message.setText("No more rooms");
+                    }
+                } catch (IOException e) {
+                    LoggerUtil.INSTANCE.warning("Error sending request: " + e.getMessage(), e);
+                    message.setText("Error sending request: " + e.getMessage());
+                }
+            });
+        });
+
         searchContent.add(searchLabel);
         searchContent.add(searchValue);
         searchContent.add(searchButton);
         searchContent.add(createButton);
         searchContent.add(joinButton);
+        searchContent.add(moreButton);
         search.add(searchContent);
         messageContainer.add(message);
         search.add(messageContainer);
@@ -169,6 +188,15 @@ public class RoomsPanel extends JPanel {
         this.message.setText(message);
     }
 
+    /**
+     * Enables the "More" button when the last search has another page.
+     * 
+     * @param hasMore true if more rooms can be fetched
+     */
+    public void setHasMore(boolean hasMore) {
+        moreButton.setEnabled(hasMore);
+    }
+
     /**
      * Adds a room to the rooms list.
      * 
@@ -176,7 +204,7 @@ public class RoomsPanel extends JPanel {
      */
     public void addRoom(String room) {
         if (room != null) {
-            LoggerUtil.INSTANCE.info("Adding: " + room);
+            LoggerUtil.INSTANCE.info("Adding: %s", room);
             RoomListItem roomListItem = new RoomListItem(room, this::handleSelection);
             Dimension size = new Dimension(this.getSize().width, 40);
             roomListItem.setPreferredSize(size);
@@ -213,7 +241,7 @@ public class RoomsPanel extends JPanel {
     public void removeAllRooms() {
         LoggerUtil.INSTANCE.info("Clearing rooms");
         for (RoomListItem roomListItem : rooms) {
-            LoggerUtil.INSTANCE.info("Removing " + roomListItem.getRoomName());
+            LoggerUtil.INSTANCE.info("Removing %s", roomListItem.getRoomName());
             container.remove(roomListItem);
         }
         rooms.clear();
@@ -28,6 +28,7 @@ public class UserListPanel extends JPanel {
     private GridBagConstraints lastConstraints; // Keep track of the last constraints for the glue
     private HashMap<Long, UserListItem> userItemsMap; // Maintain a map of client IDs to UserListItems
     private long highlightedUserId = -1; //arc73 7/29/24
+    private boolean isBatching = false; // skips the per-item refresh while adding or removing many at once
 
     /**
      * Constructor to create the UserListPanel UI.
@@ -50,7 +51,7 @@ public class UserListPanel extends JPanel {
         userListArea.addContainerListener(new ContainerListener() {
             @Override
             public void componentAdded(ContainerEvent e) {
-                if (userListArea.isVisible()) {
+                if (userListArea.isVisible() && !isBatching) {
                     SwingUtilities.invokeLater(() -> {
                         userListArea.revalidate();
                         userListArea.repaint();
@@ -60,7 +61,7 @@ public class UserListPanel extends JPanel {
 
             @Override
             public void componentRemoved(ContainerEvent e) {
-                if (userListArea.isVisible()) {
+                if (userListArea.isVisible() && !isBatching) {
                     SwingUtilities.invokeLater(() -> {
                         userListArea.revalidate();
                         userListArea.repaint();
@@ -99,39 +100,78 @@ public class UserListPanel extends JPanel {
                 return; // User already in the list
             }
             System.out.println("Specified user being added to list in UserListPanel: " + clientName);
-            LoggerUtil.INSTANCE.info("Adding user to list: " + clientName);
-
-            UserListItem userItem = new UserListItem(clientId, clientName, userListArea);
-
-            // GridBagConstraints settings for each user
-            GridBagConstraints gbc = new GridBagConstraints();
-            gbc.gridx = 0; // Column index 0
-            gbc.gridy = userListArea.getComponentCount() - 1; // Place before the glue
-            gbc.weightx = 1; // Let the component grow horizontally to fill the space
-            gbc.anchor = GridBagConstraints.NORTH; // Anchor to the top
-            gbc.fill = GridBagConstraints.HORIZONTAL; // Fill horizontally
-            gbc.insets = new Insets(0, 0, 5, 0); // Add spacing between users
-
-            // Remove the last glue component if it exists
-            if (lastConstraints != null) {
-                int index = userListArea.getComponentCount() - 1;
-                if (index > -1) {
-                    userListArea.remove(index);
-                }
-            }
-            // Add user item
-            userListArea.add(userItem, gbc);
+            LoggerUtil.INSTANCE.info("Adding user to list: %s", clientName);
 
+            removeGlue();
+            addItem(clientId, clientName);
             // Add vertical glue to push items to the top
             userListArea.add(Box.createVerticalGlue(), lastConstraints);
 
-            userItemsMap.put(clientId, userItem); // Add to the map
+            userListArea.revalidate();
+            userListArea.repaint();
+        });
+    }
 
+    /**
+     * Adds many users to the list with a single layout pass, used for the
+     * member snapshot of a room we just joined.
+     *
+     * @param clientIds   The IDs of the clients.
+     * @param clientNames The names of the clients, same order as the IDs.
+     */
+    protected void addUserListItems(long[] clientIds, String[] clientNames) {
+        SwingUtilities.invokeLater(() -> {
+            LoggerUtil.INSTANCE.info("Adding %s users to list", clientIds.length);
+            isBatching = true;
+            try {
+                removeGlue();
+                for (int i = 0; i < clientIds.length; i++) {
+                    if (!userItemsMap.containsKey(clientIds[i])) {
+                        addItem(clientIds[i], clientNames[i]);
+                    }
+                }
+                // Add vertical glue to push items to the top
+                userListArea.add(Box.createVerticalGlue(), lastConstraints);
+            } finally {
+                isBatching = false;
+            }
             userListArea.revalidate();
             userListArea.repaint();
         });
     }
 
+    /**
+     * Removes the trailing glue so items can be appended after the last user.
+     */
+    private void removeGlue() {
+        if (lastConstraints != null) {
+            int index = userListArea.getComponentCount() - 1;
+            if (index > -1) {
+                userListArea.remove(index);
+            }
+        }
+    }
+
+    /**
+     * Appends one user item; the caller handles the glue and the refresh.
+     */
+    private void addItem(long clientId, String clientName) {
+        UserListItem userItem = new UserListItem(clientId, clientName, userListArea);
+
+        // GridBagConstraints settings for each user
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.gridx = 0; // Column index 0
+        gbc.gridy = userListArea.getComponentCount(); // Glue is re-added after the items
+        gbc.weightx = 1; // Let the component grow horizontally to fill the space
+        gbc.anchor = GridBagConstraints.NORTH; // Anchor to the top
+        gbc.fill = GridBagConstraints.HORIZONTAL; // Fill horizontally
+        gbc.insets = new Insets(0, 0, 5, 0); // Add spacing between users
+
+        // Add user item
+        userListArea.add(userItem, gbc);
+        userItemsMap.put(clientId, userItem); // Add to the map
+    }
+
     /**
      * Adjusts the width of all user list items.
      */
@@ -153,7 +193,7 @@ public class UserListPanel extends JPanel {
      */
     protected void removeUserListItem(long clientId) {
         SwingUtilities.invokeLater(() -> {
-            LoggerUtil.INSTANCE.info("Removing user list item for id " + clientId);
+            LoggerUtil.INSTANCE.info("Removing user list item for id %s", clientId);
             UserListItem item = userItemsMap.remove(clientId); // Remove from the map
             if (item != null) {
                 userListArea.remove(item);
@@ -163,6 +203,34 @@ public class UserListPanel extends JPanel {
         });
     }
 
+    /**
+     * Removes many users from the list with a single layout pass.
+     *
+     * @param clientIds The IDs of the clients to be removed.
+     */
+    protected void removeUserListItems(long[] clientIds) {
+        SwingUtilities.invokeLater(() -> {
+            LoggerUtil.INSTANCE.info("Removing %s user list items", clientIds.length);
+            boolean removed = false;
+            isBatching = true;
+            try {
+                for (long clientId : clientIds) {
+                    UserListItem item = userItemsMap.remove(clientId);
+                    if (item != null) {
+                        userListArea.remove(item);
+                        removed = true;
+                    }
+                }
+            } finally {
+                isBatching = false;
+            }
+            if (removed) {
+                userListArea.revalidate();
+                userListArea.repaint();
+            }
+        });
+    }
+
     /**
      * Clears the user list.
      */
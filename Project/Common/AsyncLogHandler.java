@@ -0,0 +1,254 @@
+package Project.Common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler that hands records off to a background writer.
+ * <p>
+ * The logging thread only claims a slot in a bounded lock-free ring buffer.
+ * A single writer thread drains the buffer in batches, publishes each record
+ * to the real handlers (file/console) and flushes them once per batch, so
+ * socket threads no longer wait on disk or console I/O.
+ * </p>
+ * <p>
+ * When the buffer is full the {@link OverflowPolicy} decides what happens to
+ * INFO and below. WARNING and SEVERE records always wait for room so they're
+ * never lost.
+ * </p>
+ */
+public class AsyncLogHandler extends Handler {
+    /**
+     * What a logging call does when the buffer is full
+     */
+    public enum OverflowPolicy {
+        BLOCK, // wait for the writer to make room
+        DROP, // discard the record and count it
+        SAMPLE, // keep one of every sampleRate overflowing records (waiting for it), drop the rest
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = 10_000_000L; // 10ms
+    private static final long FULL_PARK_NANOS = 50_000L;
+
+    private final Handler[] delegates;
+    private final RingBuffer buffer;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong overflows = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean writerParked = false;
+    private long reportedDrops = 0; // writer thread only
+
+    /**
+     * @param capacity   ring buffer size (rounded up to a power of two)
+     * @param policy     what to do when the buffer is full
+     * @param sampleRate used by {@link OverflowPolicy#SAMPLE}
+     * @param delegates  handlers that do the actual writing
+     */
+    public AsyncLogHandler(int capacity, OverflowPolicy policy, int sampleRate, Handler... delegates) {
+        this.delegates = delegates;
+        this.buffer = new RingBuffer(capacity);
+        this.policy = policy;
+        this.sampleRate = Math.max(1, sampleRate);
+        Level level = Level.OFF;
+        for (Handler delegate : delegates) {
+            if (delegate.getLevel().intValue() < level.intValue()) {
+                level = delegate.getLevel();
+            }
+        }
+        setLevel(level);
+        writer = new Thread(this::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        if (!running || Thread.currentThread() == writer) {
+            // shutting down, or logged from inside a delegate: write it directly
+            publishToDelegates(record);
+            return;
+        }
+        if (buffer.offer(record)) {
+            if (writerParked) {
+                LockSupport.unpark(writer);
+            }
+            return;
+        }
+        boolean mustKeep = record.getLevel().intValue() >= Level.WARNING.intValue();
+        if (!mustKeep) {
+            if (policy == OverflowPolicy.DROP
+                    || policy == OverflowPolicy.SAMPLE && overflows.incrementAndGet() % sampleRate != 0) {
+                dropped.increment();
+                return;
+            }
+        }
+        // wait for the writer to make room
+        while (!buffer.offer(record)) {
+            if (!running) {
+                publishToDelegates(record);
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Gets the number of records discarded because the buffer was full.
+     *
+     * @return the drop count
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void flush() {
+        // the writer flushes after every batch
+    }
+
+    /**
+     * Stops accepting records, writes whatever is still buffered and closes
+     * the delegates. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler delegate : delegates) {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Writer loop: publish up to a batch, flush, park when there's nothing to do
+     */
+    private void drain() {
+        while (running || !buffer.isEmpty()) {
+            int count = 0;
+            LogRecord record;
+            while (count < BATCH_SIZE && (record = buffer.poll()) != null) {
+                publishToDelegates(record);
+                count++;
+            }
+            if (count > 0) {
+                reportDrops();
+                for (Handler delegate : delegates) {
+                    delegate.flush();
+                }
+                continue;
+            }
+            writerParked = true;
+            if (running && buffer.isEmpty()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+        reportDrops();
+        for (Handler delegate : delegates) {
+            delegate.flush();
+        }
+    }
+
+    private void publishToDelegates(LogRecord record) {
+        for (Handler delegate : delegates) {
+            delegate.publish(record);
+        }
+    }
+
+    /**
+     * Leaves a note in the log whenever records were dropped since the last batch
+     */
+    private void reportDrops() {
+        long total = dropped.sum();
+        if (total != reportedDrops) {
+            LogRecord note = new LogRecord(Level.WARNING,
+                    String.format("Log buffer full, dropped %s records (%s total)", total - reportedDrops, total));
+            note.setSourceClassName(AsyncLogHandler.class.getName());
+            reportedDrops = total;
+            publishToDelegates(note);
+        }
+    }
+
+    /**
+     * Bounded multi-producer/single-consumer ring of records.
+     * Each slot has a sequence number telling producers whether it's free for
+     * their lap and the consumer whether it's been filled, so no locks are
+     * needed (Vyukov's bounded queue).
+     */
+    private static class RingBuffer {
+        private final LogRecord[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong(); // next slot to claim
+        private volatile long head = 0; // next slot to read, only written by the consumer
+
+        RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            slots = new LogRecord[size];
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            mask = size - 1;
+        }
+
+        boolean offer(LogRecord record) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots[index] = record;
+                        sequences.set(index, position + 1); // publishes the slot to the consumer
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    return false; // the consumer hasn't freed this slot yet, full
+                } else {
+                    position = tail.get(); // another producer took it, try again
+                }
+            }
+        }
+
+        LogRecord poll() {
+            long position = head;
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                return null;
+            }
+            LogRecord record = slots[index];
+            slots[index] = null;
+            sequences.set(index, position + slots.length); // free for the next lap
+            head = position + 1;
+            return record;
+        }
+
+        boolean isEmpty() {
+            return sequences.get((int) (head & mask)) != head + 1;
+        }
+    }
+}
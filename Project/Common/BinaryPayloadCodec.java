@@ -0,0 +1,508 @@
+package Project.Common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact hand-written encoding of the Payload classes.
+ * <p>
+ * Layout: shape tag (which Payload class), PayloadType tag, zigzag varint
+ * client id, flag bits, then the class' fields. Strings are a varint of
+ * (UTF-8 length + 1) followed by the bytes, where 0 means null.
+ * </p>
+ * <p>
+ * Note: a new Payload subclass or field must be added here as well, otherwise
+ * it will arrive as its closest known shape.
+ * </p>
+ */
+public class BinaryPayloadCodec implements PayloadCodec {
+    public static final int ID = 2;
+    public static final BinaryPayloadCodec INSTANCE = new BinaryPayloadCodec();
+
+    // shape tags
+    private static final byte PAYLOAD = 0;
+    private static final byte CONNECTION = 1;
+    private static final byte ROLL = 2;
+    private static final byte FLIP = 3;
+    private static final byte ROOM_RESULTS = 4;
+    private static final byte DIRECT_MESSAGE = 5;
+    private static final byte ROOM_QUERY = 6;
+    private static final byte HISTORY = 7;
+    private static final byte SEARCH_RESULTS = 8;
+    private static final byte PRESENCE_DELTA = 9;
+    private static final byte ROOM_SNAPSHOT = 10;
+    private static final byte RECONNECT = 11;
+    // flag bits
+    private static final int FLAG_PRIVATE = 1;
+    private static final int FLAG_CONNECT = 1 << 1;
+
+    private static final int NO_TYPE = 0xFF;
+    private static final PayloadType[] TYPES = PayloadType.values();
+
+    private BinaryPayloadCodec() {
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "binary";
+    }
+
+    @Override
+    public byte[] encode(Payload payload, int reserve) throws IOException {
+        Writer out = new Writer(reserve + 32 + estimate(payload.getMessage()));
+        out.position = reserve;
+        byte shape = shapeOf(payload);
+        out.writeByte(shape);
+        out.writeByte(payload.getPayloadType() == null ? NO_TYPE : payload.getPayloadType().ordinal());
+        out.writeVarLong(zigzag(payload.getClientId()));
+        int flags = payload.isPrivate() ? FLAG_PRIVATE : 0;
+        if (payload instanceof ConnectionPayload && ((ConnectionPayload) payload).isConnect()) {
+            flags |= FLAG_CONNECT;
+        }
+        out.writeByte(flags);
+        out.writeString(payload.getMessage());
+        out.writeString(payload.getTargetUsername());
+        switch (shape) {
+            case CONNECTION:
+                out.writeString(((ConnectionPayload) payload).getClientName());
+                break;
+            case ROLL:
+                RollPayload roll = (RollPayload) payload;
+                out.writeVarLong(zigzag(roll.getDiceNumber()));
+                out.writeVarLong(zigzag(roll.getSidesNumber()));
+                break;
+            case ROOM_RESULTS:
+                List<String> rooms = ((RoomResultsPayload) payload).getRooms();
+                out.writeVarLong(rooms == null ? 0 : rooms.size() + 1L);
+                if (rooms != null) {
+                    for (String room : rooms) {
+                        out.writeString(room);
+                    }
+                }
+                out.writeString(((RoomResultsPayload) payload).getCursor());
+                break;
+            case ROOM_QUERY:
+                RoomQueryPayload query = (RoomQueryPayload) payload;
+                out.writeVarLong(zigzag(query.getLimit()));
+                out.writeString(query.getCursor());
+                break;
+            case DIRECT_MESSAGE:
+                out.writeVarLong(((DirectMessagePayload) payload).getSequence());
+                break;
+            case HISTORY:
+                HistoryPayload history = (HistoryPayload) payload;
+                out.writeVarLong(history.size());
+                for (int i = 0; i < history.size(); i++) {
+                    out.writeVarLong(zigzag(history.getClientId(i)));
+                    out.writeString(history.getClientName(i));
+                    out.writeString(history.getMessage(i));
+                }
+                break;
+            case SEARCH_RESULTS:
+                SearchResultsPayload results = (SearchResultsPayload) payload;
+                out.writeVarLong(results.size());
+                for (int i = 0; i < results.size(); i++) {
+                    out.writeVarLong(results.getTimestamp(i));
+                    out.writeString(results.getRoom(i));
+                    out.writeVarLong(zigzag(results.getClientId(i)));
+                    out.writeString(results.getClientName(i));
+                    out.writeString(results.getMessage(i));
+                }
+                break;
+            case PRESENCE_DELTA:
+                PresenceDeltaPayload delta = (PresenceDeltaPayload) payload;
+                out.writeVarLong(delta.getJoinCount());
+                for (int i = 0; i < delta.getJoinCount(); i++) {
+                    out.writeVarLong(zigzag(delta.getJoinedId(i)));
+                    out.writeString(delta.getJoinedName(i));
+                }
+                out.writeVarLong(delta.getLeaveCount());
+                for (int i = 0; i < delta.getLeaveCount(); i++) {
+                    out.writeVarLong(zigzag(delta.getLeftId(i)));
+                    out.writeString(delta.getLeftName(i));
+                }
+                out.writeVarLong(zigzag(delta.getRoomVersion()));
+                break;
+            case ROOM_SNAPSHOT:
+                RoomSnapshotPayload snapshot = (RoomSnapshotPayload) payload;
+                out.writeVarLong(snapshot.size());
+                for (int i = 0; i < snapshot.size(); i++) {
+                    out.writeVarLong(zigzag(snapshot.getClientId(i)));
+                    out.writeString(snapshot.getClientName(i));
+                }
+                out.writeVarLong(snapshot.getRemovedCount());
+                for (int i = 0; i < snapshot.getRemovedCount(); i++) {
+                    out.writeVarLong(zigzag(snapshot.getRemovedId(i)));
+                }
+                out.writeByte(snapshot.isDelta() ? 1 : 0);
+                out.writeVarLong(zigzag(snapshot.getRoomEpoch()));
+                out.writeVarLong(zigzag(snapshot.getRoomVersion()));
+                break;
+            case RECONNECT:
+                ReconnectPayload reconnect = (ReconnectPayload) payload;
+                out.writeString(reconnect.getClientName());
+                out.writeVarLong(zigzag(reconnect.getRoomEpoch()));
+                out.writeVarLong(zigzag(reconnect.getRoomVersion()));
+                break;
+            default:
+                break;
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Payload decode(byte[] data, int offset, int length) throws IOException {
+        Reader in = new Reader(data, offset, length);
+        int shape = in.readByte();
+        int typeTag = in.readByte();
+        Payload payload;
+        switch (shape) {
+            case PAYLOAD:
+                payload = new Payload();
+                break;
+            case CONNECTION:
+                payload = new ConnectionPayload();
+                break;
+            case ROLL:
+                payload = new RollPayload();
+                break;
+            case FLIP:
+                payload = new FlipPayload();
+                break;
+            case ROOM_RESULTS:
+                payload = new RoomResultsPayload();
+                break;
+            case DIRECT_MESSAGE:
+                payload = new DirectMessagePayload();
+                break;
+            case ROOM_QUERY:
+                payload = new RoomQueryPayload();
+                break;
+            case HISTORY:
+                payload = new HistoryPayload();
+                break;
+            case SEARCH_RESULTS:
+                payload = new SearchResultsPayload();
+                break;
+            case PRESENCE_DELTA:
+                payload = new PresenceDeltaPayload();
+                break;
+            case ROOM_SNAPSHOT:
+                payload = new RoomSnapshotPayload();
+                break;
+            case RECONNECT:
+                payload = new ReconnectPayload();
+                break;
+            default:
+                throw new IOException("Unknown payload shape " + shape);
+        }
+        if (typeTag == NO_TYPE) {
+            payload.setPayloadType(null);
+        } else if (typeTag < TYPES.length) {
+            payload.setPayloadType(TYPES[typeTag]);
+        } else {
+            throw new IOException("Unknown payload type " + typeTag);
+        }
+        payload.setClientId(unzigzag(in.readVarLong()));
+        int flags = in.readByte();
+        payload.setPrivate((flags & FLAG_PRIVATE) != 0);
+        payload.setMessage(in.readString());
+        payload.setTargetUsername(in.readString());
+        switch (shape) {
+            case CONNECTION:
+                ConnectionPayload cp = (ConnectionPayload) payload;
+                cp.setConnect((flags & FLAG_CONNECT) != 0);
+                cp.setClientName(in.readString());
+                break;
+            case ROLL:
+                RollPayload roll = (RollPayload) payload;
+                roll.setDicenumber((int) unzigzag(in.readVarLong()));
+                roll.setSidesnumber((int) unzigzag(in.readVarLong()));
+                break;
+            case ROOM_RESULTS:
+                long count = in.readVarLong();
+                if (count == 0) {
+                    ((RoomResultsPayload) payload).setRooms(null);
+                } else {
+                    in.checkCount(count - 1);
+                    List<String> rooms = new ArrayList<>((int) (count - 1));
+                    for (long i = 1; i < count; i++) {
+                        rooms.add(in.readString());
+                    }
+                    ((RoomResultsPayload) payload).setRooms(rooms);
+                }
+                ((RoomResultsPayload) payload).setCursor(in.readString());
+                break;
+            case ROOM_QUERY:
+                RoomQueryPayload query = (RoomQueryPayload) payload;
+                query.setLimit((int) unzigzag(in.readVarLong()));
+                query.setCursor(in.readString());
+                break;
+            case DIRECT_MESSAGE:
+                ((DirectMessagePayload) payload).setSequence(in.readVarLong());
+                break;
+            case HISTORY:
+                HistoryPayload history = (HistoryPayload) payload;
+                long entries = in.readVarLong();
+                in.checkCount(entries);
+                for (long i = 0; i < entries; i++) {
+                    history.add(unzigzag(in.readVarLong()), in.readString(), in.readString());
+                }
+                break;
+            case SEARCH_RESULTS:
+                SearchResultsPayload results = (SearchResultsPayload) payload;
+                long matches = in.readVarLong();
+                in.checkCount(matches);
+                for (long i = 0; i < matches; i++) {
+                    results.add(in.readVarLong(), in.readString(), unzigzag(in.readVarLong()), in.readString(),
+                            in.readString());
+                }
+                break;
+            case PRESENCE_DELTA:
+                PresenceDeltaPayload delta = (PresenceDeltaPayload) payload;
+                long joins = in.readVarLong();
+                in.checkCount(joins);
+                for (long i = 0; i < joins; i++) {
+                    delta.addJoin(unzigzag(in.readVarLong()), in.readString());
+                }
+                long leaves = in.readVarLong();
+                in.checkCount(leaves);
+                for (long i = 0; i < leaves; i++) {
+                    delta.addLeave(unzigzag(in.readVarLong()), in.readString());
+                }
+                delta.setRoomVersion(unzigzag(in.readVarLong()));
+                break;
+            case ROOM_SNAPSHOT:
+                long members = in.readVarLong();
+                in.checkCount(members);
+                long[] ids = new long[(int) members];
+                String[] names = new String[(int) members];
+                for (int i = 0; i < members; i++) {
+                    ids[i] = unzigzag(in.readVarLong());
+                    names[i] = in.readString();
+                }
+                RoomSnapshotPayload snapshot = (RoomSnapshotPayload) payload;
+                snapshot.setClients(ids, names);
+                long removed = in.readVarLong();
+                in.checkCount(removed);
+                long[] removedIds = new long[(int) removed];
+                for (int i = 0; i < removed; i++) {
+                    removedIds[i] = unzigzag(in.readVarLong());
+                }
+                snapshot.setRemovedIds(removedIds);
+                snapshot.setDelta(in.readByte() != 0);
+                snapshot.setRoomEpoch(unzigzag(in.readVarLong()));
+                snapshot.setRoomVersion(unzigzag(in.readVarLong()));
+                break;
+            case RECONNECT:
+                ReconnectPayload reconnect = (ReconnectPayload) payload;
+                reconnect.setConnect((flags & FLAG_CONNECT) != 0);
+                reconnect.setClientName(in.readString());
+                reconnect.setRoomEpoch(unzigzag(in.readVarLong()));
+                reconnect.setRoomVersion(unzigzag(in.readVarLong()));
+                break;
+            default:
+                break;
+        }
+        return payload;
+    }
+
+    private static byte shapeOf(Payload payload) {
+        // subclasses first
+        if (payload instanceof ReconnectPayload) {
+            return RECONNECT;
+        } else if (payload instanceof ConnectionPayload) {
+            return CONNECTION;
+        } else if (payload instanceof RollPayload) {
+            return ROLL;
+        } else if (payload instanceof FlipPayload) {
+            return FLIP;
+        } else if (payload instanceof RoomResultsPayload) {
+            return ROOM_RESULTS;
+        } else if (payload instanceof DirectMessagePayload) {
+            return DIRECT_MESSAGE;
+        } else if (payload instanceof RoomQueryPayload) {
+            return ROOM_QUERY;
+        } else if (payload instanceof HistoryPayload) {
+            return HISTORY;
+        } else if (payload instanceof SearchResultsPayload) {
+            return SEARCH_RESULTS;
+        } else if (payload instanceof PresenceDeltaPayload) {
+            return PRESENCE_DELTA;
+        } else if (payload instanceof RoomSnapshotPayload) {
+            return ROOM_SNAPSHOT;
+        }
+        return PAYLOAD;
+    }
+
+    private static int estimate(String text) {
+        return text == null ? 0 : text.length() + (text.length() >> 2);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Growable byte array writer; avoids the extra copies of
+     * ByteArrayOutputStream/DataOutputStream
+     */
+    private static class Writer {
+        private byte[] buffer;
+        private int position;
+
+        Writer(int capacity) {
+            buffer = new byte[Math.max(16, capacity)];
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > buffer.length) {
+                byte[] bigger = new byte[Math.max(buffer.length * 2, position + extra)];
+                System.arraycopy(buffer, 0, bigger, 0, position);
+                buffer = bigger;
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        /**
+         * Writes the length then encodes UTF-8 directly into the buffer
+         * (unpaired surrogates become '?', same as String.getBytes())
+         */
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            int length = value.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    utf8Length++;
+                } else if (c < 0x800) {
+                    utf8Length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    utf8Length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    utf8Length++;
+                } else {
+                    utf8Length += 3;
+                }
+            }
+            writeVarLong(utf8Length + 1L);
+            ensure(utf8Length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = (byte) '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            if (position == buffer.length) {
+                return buffer;
+            }
+            byte[] exact = new byte[position];
+            System.arraycopy(buffer, 0, exact, 0, position);
+            return exact;
+        }
+    }
+
+    /**
+     * Bounds-checked reader over a frame body
+     */
+    private static class Reader {
+        private final byte[] data;
+        private int position;
+        private final int end;
+
+        Reader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        int readByte() throws IOException {
+            if (position >= end) {
+                throw new IOException("Truncated frame");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String readString() throws IOException {
+            long length = readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            checkCount(length - 1);
+            int size = (int) (length - 1);
+            String value = new String(data, position, size, StandardCharsets.UTF_8);
+            position += size;
+            return value;
+        }
+
+        /**
+         * Rejects lengths/counts that can't fit in the rest of the frame
+         */
+        void checkCount(long count) throws IOException {
+            if (count < 0 || count > end - position) {
+                throw new IOException("Truncated frame");
+            }
+        }
+    }
+}
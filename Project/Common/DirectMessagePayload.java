@@ -0,0 +1,33 @@
+package Project.Common;
+
+/**
+ * A private message between two clients.
+ * <p>
+ * The sequence number counts the messages of one conversation (both
+ * directions share it), so both participants can tell they're seeing the same
+ * order.
+ * </p>
+ */
+public class DirectMessagePayload extends Payload {
+    private static final long serialVersionUID = 1L;
+    private long sequence;
+
+    public DirectMessagePayload() {
+        setPayloadType(PayloadType.MESSAGE);
+        setPrivate(true);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DirectMessagePayload[#%s] Client Id [%s] To [%s] Message: [%s]", getSequence(),
+                getClientId(), getTargetUsername(), getMessage());
+    }
+}
@@ -0,0 +1,65 @@
+package Project.Common;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A Payload paired with its encoded frames so a broadcast only pays for
+ * encoding once per codec instead of once per recipient.
+ * <p>
+ * Frames are encoded lazily the first time a connection using that codec asks
+ * for them and are then shared by every other recipient. The wrapped Payload
+ * must not be changed after it's wrapped, and the returned frames must be
+ * treated as read-only.
+ * </p>
+ */
+public final class EncodedPayload {
+    // codec ids fit in the one byte handshake bit set
+    private static final int MAX_CODECS = Byte.SIZE;
+
+    private final Payload payload;
+    private final AtomicReferenceArray<byte[]> frames = new AtomicReferenceArray<>(MAX_CODECS);
+
+    public EncodedPayload(Payload payload) {
+        if (payload == null) {
+            throw new NullPointerException("Payload can't be null");
+        }
+        this.payload = payload;
+    }
+
+    /**
+     * Gets the Payload (used by connections that can't share bytes, like the
+     * legacy object stream).
+     *
+     * @return the payload
+     */
+    public Payload getPayload() {
+        return payload;
+    }
+
+    /**
+     * Gets the complete frame (length prefix included) for the codec, encoding
+     * it on first use.
+     *
+     * @param codec the connection's codec
+     * @return the shared frame bytes, don't modify
+     * @throws IOException if the payload can't be encoded
+     */
+    public byte[] frame(PayloadCodec codec) throws IOException {
+        int id = codec.getId();
+        byte[] frame = frames.get(id);
+        if (frame == null) {
+            // two threads may race to encode, the first one stored wins
+            frame = PayloadFraming.encode(payload, codec);
+            if (!frames.compareAndSet(id, null, frame)) {
+                frame = frames.get(id);
+            }
+        }
+        return frame;
+    }
+
+    @Override
+    public String toString() {
+        return payload.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package Project.Common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages said in a room before the client joined, oldest first, sent as a
+ * single payload right after the room's client list.
+ */
+public class HistoryPayload extends Payload {
+    private List<Long> clientIds = new ArrayList<Long>();
+    private List<String> clientNames = new ArrayList<String>();
+    private List<String> messages = new ArrayList<String>();
+
+    public HistoryPayload() {
+        setPayloadType(PayloadType.HISTORY);
+    }
+
+    /**
+     * Adds one message
+     * 
+     * @param clientId   the sender's id
+     * @param clientName the sender's name, null for server messages
+     * @param message    the formatted message
+     */
+    public void add(long clientId, String clientName, String message) {
+        clientIds.add(clientId);
+        clientNames.add(clientName);
+        messages.add(message);
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public long getClientId(int index) {
+        return clientIds.get(index);
+    }
+
+    public String getClientName(int index) {
+        return clientNames.get(index);
+    }
+
+    public String getMessage(int index) {
+        return messages.get(index);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HistoryPayload[%s messages]", size());
+    }
+}
@@ -0,0 +1,110 @@
+package Project.Common;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Compares LoggerUtil's formatter with the one it replaced.
+ * <p>
+ * Times caller lookup on its own (stack trace vs StackWalker) and then a full
+ * record (lookup + format) for the old formatter, the new one, and the new one
+ * with caller lookup turned off. Lookups run a configurable number of frames
+ * deep since that's what the stack trace version pays for. Plain main() so it
+ * runs without extra tooling:
+ * </p>
+ * <pre>java Project.Common.LogFormatterBenchmark [iterations] [stackDepth]</pre>
+ */
+public class LogFormatterBenchmark {
+    private static final String MESSAGE = "Room lobby: user joined the room";
+
+    /**
+     * The formatter LoggerUtil used before: new SimpleDateFormat, a full stack
+     * trace and String.format for every record
+     */
+    private static class LegacyFormatter extends Formatter {
+        @Override
+        public String format(LogRecord record) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
+            String date = dateFormat.format(new Date(record.getMillis()));
+            String source = getCallingClassName();
+            String message = formatMessage(record);
+            String level = "\u001B[32m" + record.getLevel().getName() + "\u001B[0m";
+            return String.format("%s [%s] (%s):\n\u001B[34m>\u001B[0m %s%s\n", date, source, level, message, "");
+        }
+
+        static String getCallingClassName() {
+            String loggerUtilPackage = LoggerUtil.class.getPackage().getName();
+            StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+            for (StackTraceElement element : stackTrace) {
+                String className = element.getClassName();
+                if (!className.startsWith("java.util.logging") &&
+                        !className.startsWith(loggerUtilPackage) &&
+                        !className.equals(Thread.class.getName())) {
+                    return className;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        LegacyFormatter legacy = new LegacyFormatter();
+        LoggerUtil.CustomFormatter current = new LoggerUtil.CustomFormatter();
+
+        String legacyCaller = atDepth(depth, LegacyFormatter::getCallingClassName);
+        String currentCaller = atDepth(depth, LoggerUtil.CustomFormatter::getCallingClassName);
+        if (!legacyCaller.equals(currentCaller)) {
+            throw new IllegalStateException("Callers differ: " + legacyCaller + " vs " + currentCaller);
+        }
+
+        report("caller: stack trace", iterations, depth, () -> LegacyFormatter.getCallingClassName());
+        report("caller: StackWalker", iterations, depth, () -> LoggerUtil.CustomFormatter.getCallingClassName());
+        report("record: old formatter", iterations, depth, () -> legacy.format(new LogRecord(Level.INFO, MESSAGE)));
+        // built the way LoggerUtil.log builds them, so lookup off is what the server gets
+        report("record: new formatter", iterations, depth,
+                () -> current.format(LoggerUtil.newRecord(Level.INFO, MESSAGE, true)));
+        report("record: new, no lookup", iterations, depth,
+                () -> current.format(LoggerUtil.newRecord(Level.INFO, MESSAGE, false)));
+    }
+
+    private static void report(String name, int iterations, int depth, Supplier<String> work) {
+        // warm up, then time
+        time(iterations, depth, work);
+        long nanos = time(iterations, depth, work);
+        System.out.println(String.format("%-24s %,8.0f ns/op", name, (double) nanos / iterations));
+    }
+
+    private static long time(int iterations, int depth, Supplier<String> work) {
+        return atDepth(depth, () -> {
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += work.get().length();
+            }
+            long elapsed = System.nanoTime() - start;
+            if (sink == 42) {
+                System.out.println(); // keeps the results observable
+            }
+            return elapsed;
+        });
+    }
+
+    /**
+     * Runs the work below a stack of frames. The JDK frame right above it
+     * (Optional.map) stands in for the caller, since everything in this package
+     * is skipped by the lookup.
+     */
+    private static <T> T atDepth(int depth, Supplier<T> work) {
+        if (depth > 0) {
+            return atDepth(depth - 1, work);
+        }
+        return Optional.of(work).map(Supplier::get).orElseThrow();
+    }
+}
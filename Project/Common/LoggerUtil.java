@@ -1,14 +1,17 @@
 package Project.Common;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
 
 /**
  * Utility class for logging messages to a log file.
@@ -21,6 +24,7 @@ public enum LoggerUtil {
     private Logger logger;
     private LoggerConfig config;
     private boolean isConfigured = false;
+    private AsyncLogHandler asyncHandler; // null unless the config asks for async logging
 
     LoggerUtil() {
     }
@@ -39,9 +43,19 @@ public enum LoggerUtil {
      * CustomFormatter class for formatting the log messages.
      * This class formats the log messages to include the date, log level, source,
      * and message.
+     * <p>
+     * Timestamps only have second precision, so the rendered text is cached and
+     * reused for every record logged in the same second. The cache is a single
+     * immutable entry swapped through a volatile field, which keeps it safe to
+     * share between the console and file handlers.
+     * </p>
      */
-    private static class CustomFormatter extends Formatter {
-        private static final String PATTERN = "MM/dd/yyyy HH:mm:ss";
+    static class CustomFormatter extends Formatter {
+        private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss")
+                .withZone(ZoneId.systemDefault());
+        // frames are inspected lazily, the walk stops at the first one outside the logging code
+        private static final StackWalker WALKER = StackWalker.getInstance();
+        private static final String LOGGER_PACKAGE = LoggerUtil.class.getPackageName() + ".";
         private static final String RESET = "\u001B[0m";
         private static final String BLACK = "\u001B[30m";
         private static final String RED = "\u001B[31m";
@@ -52,20 +66,40 @@ public enum LoggerUtil {
         private static final String CYAN = "\u001B[36m";
         private static final String WHITE = "\u001B[37m";
 
+        private volatile CachedDate cachedDate = new CachedDate(Long.MIN_VALUE, "");
+
         @Override
         public String format(LogRecord record) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat(PATTERN);
-            String date = dateFormat.format(new Date(record.getMillis()));
-            String callingClass = getCallingClassName();
-            String source = callingClass != null ? callingClass
-                    : record.getSourceClassName() != null ? record.getSourceClassName() : "unknown";
+            String date = formatDate(record.getMillis());
+            // resolved by LoggerUtil on the logging thread (the formatter may run on the async writer)
+            String source = record.getSourceClassName() != null ? record.getSourceClassName() : "unknown";
             String message = formatMessage(record);
             String level = getColoredLevel(record.getLevel());
-            String throwable = "";
+            StringBuilder sb = new StringBuilder(date.length() + source.length() + level.length()
+                    + (message == null ? 4 : message.length()) + 32);
+            sb.append(date).append(" [").append(source).append("] (").append(level).append("):\n")
+                    .append(BLUE).append('>').append(RESET).append(' ').append(message);
             if (record.getThrown() != null) {
-                throwable = "\n" +getStackTrace(record.getThrown());
+                sb.append('\n');
+                appendStackTrace(sb, record.getThrown());
             }
-            return String.format("%s [%s] (%s):\n\u001B[34m>\u001B[0m %s%s\n", date, source, level, message, throwable);
+            return sb.append('\n').toString();
+        }
+
+        /**
+         * Renders the timestamp, reusing the previous result within the same second.
+         * 
+         * @param millis the record's time
+         * @return the formatted date
+         */
+        String formatDate(long millis) {
+            long second = Math.floorDiv(millis, 1000L);
+            CachedDate cached = cachedDate;
+            if (cached.second != second) {
+                cached = new CachedDate(second, DATE_FORMAT.format(Instant.ofEpochSecond(second)));
+                cachedDate = cached;
+            }
+            return cached.text;
         }
 
         /**
@@ -73,48 +107,55 @@ public enum LoggerUtil {
          * 
          * @return the name of the calling class
          */
-        private static String getCallingClassName() {
-            String loggerUtilPackage = LoggerUtil.class.getPackage().getName();
-            StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-            for (StackTraceElement element : stackTrace) {
-                String className = element.getClassName();
-                // Skip all classes in the logging framework and the package of LoggerUtil
-                if (!className.startsWith("java.util.logging") &&
-                        !className.startsWith(loggerUtilPackage) &&
-                        !className.equals(Thread.class.getName())) {
-                    return className;
-                }
+        static String getCallingClassName() {
+            return WALKER.walk(frames -> frames
+                    .map(StackWalker.StackFrame::getClassName)
+                    // Skip all classes in the logging framework and the package of LoggerUtil
+                    .filter(className -> !className.startsWith("java.util.logging")
+                            && !className.startsWith(LOGGER_PACKAGE)
+                            && !className.equals(Thread.class.getName()))
+                    .findFirst()
+                    .orElse(null));
+        }
+
+        /**
+         * One second's worth of rendered timestamp
+         */
+        private static final class CachedDate {
+            private final long second;
+            private final String text;
+
+            CachedDate(long second, String text) {
+                this.second = second;
+                this.text = text;
             }
-            return null;
         }
 
         private static String getColoredLevel(Level level) {
             switch (level.getName()) {
                 case "SEVERE":
-                    return RED + level.getName() + RESET;
+                    return RED + "SEVERE" + RESET;
                 case "WARNING":
-                    return YELLOW + level.getName() + RESET;
+                    return YELLOW + "WARNING" + RESET;
                 case "INFO":
-                    return GREEN + level.getName() + RESET;
+                    return GREEN + "INFO" + RESET;
                 case "CONFIG":
-                    return CYAN + level.getName() + RESET;
+                    return CYAN + "CONFIG" + RESET;
                 case "FINE":
-                    return BLUE + level.getName() + RESET;
+                    return BLUE + "FINE" + RESET;
                 case "FINER":
-                    return PURPLE + level.getName() + RESET;
+                    return PURPLE + "FINER" + RESET;
                 case "FINEST":
-                    return WHITE + level.getName() + RESET;
+                    return WHITE + "FINEST" + RESET;
                 default:
                     return BLACK + level.getName() + RESET;
             }
         }
 
-        private static String getStackTrace(Throwable throwable) {
-            StringBuilder sb = new StringBuilder();
+        private static void appendStackTrace(StringBuilder sb, Throwable throwable) {
             for (StackTraceElement element : throwable.getStackTrace()) {
                 sb.append("\tat ").append(element).append("\n");
             }
-            return sb.toString();
         }
     }
 
@@ -145,21 +186,68 @@ public enum LoggerUtil {
                     true);
             fileHandler.setFormatter(new CustomFormatter());
             fileHandler.setLevel(config.getFileLogLevel());
-            logger.addHandler(fileHandler);
-    
-            // ConsoleHandler prints log messages to the console
-            ConsoleHandler consoleHandler = new ConsoleHandler();
-            consoleHandler.setFormatter(new CustomFormatter());
-            consoleHandler.setLevel(config.getConsoleLogLevel());
-            logger.addHandler(consoleHandler);
+
+            if (config.isAsync()) {
+                // same as ConsoleHandler minus the flush after every record, the
+                // async writer flushes once per batch instead
+                StreamHandler consoleHandler = new StreamHandler(System.err, new CustomFormatter()) {
+                    @Override
+                    public synchronized void close() {
+                        flush(); // don't close System.err
+                    }
+                };
+                consoleHandler.setLevel(config.getConsoleLogLevel());
+                asyncHandler = new AsyncLogHandler(config.getAsyncBufferSize(), config.getOverflowPolicy(),
+                        config.getSampleRate(), fileHandler, consoleHandler);
+                logger.addHandler(asyncHandler);
+                // write out whatever is still buffered on exit
+                Runtime.getRuntime().addShutdownHook(new Thread(asyncHandler::close, "log-flush"));
+            } else {
+                logger.addHandler(fileHandler);
+
+                // ConsoleHandler prints log messages to the console
+                ConsoleHandler consoleHandler = new ConsoleHandler();
+                consoleHandler.setFormatter(new CustomFormatter());
+                consoleHandler.setLevel(config.getConsoleLogLevel());
+                logger.addHandler(consoleHandler);
+            }
     
-            logger.setLevel(Level.ALL);
+            // nothing below what the handlers accept is worth building a record for
+            Level lowest = config.getFileLogLevel().intValue() < config.getConsoleLogLevel().intValue()
+                    ? config.getFileLogLevel()
+                    : config.getConsoleLogLevel();
+            logger.setLevel(lowest);
             isConfigured = true;
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Raises (or lowers) the level below which messages are discarded, on top of
+     * the per-handler levels from the config.
+     * 
+     * @param level the minimum level to log
+     */
+    public void setLevel(Level level) {
+        if (!isConfigured)
+            setupLogger();
+        logger.setLevel(level);
+    }
+
+    /**
+     * Checks if a message at the level would be logged. Useful to guard work
+     * that's only needed for the message.
+     * 
+     * @param level the level to check
+     * @return true if the message would be logged
+     */
+    public boolean isLoggable(Level level) {
+        if (!isConfigured)
+            setupLogger();
+        return logger.isLoggable(level);
+    }
+
     /**
      * Logs a message at the specified level.
      * 
@@ -167,9 +255,34 @@ public enum LoggerUtil {
      * @param message the log message
      */
     public void log(Level level, String message) {
-        if (!isConfigured)
-            setupLogger();
-        logger.log(level, message);
+        log(level, message, (Throwable) null);
+    }
+
+    /**
+     * Logs a message at the specified level, formatting it only if the level
+     * is enabled.
+     * 
+     * @param level  the level of the log message
+     * @param format the String.format pattern for the message
+     * @param args   the pattern's arguments
+     */
+    public void log(Level level, String format, Object... args) {
+        if (isLoggable(level)) {
+            log(level, String.format(format, args), (Throwable) null);
+        }
+    }
+
+    /**
+     * Logs a message at the specified level, building it only if the level is
+     * enabled.
+     * 
+     * @param level   the level of the log message
+     * @param message supplies the log message
+     */
+    public void log(Level level, Supplier<String> message) {
+        if (isLoggable(level)) {
+            log(level, message.get(), (Throwable) null);
+        }
     }
 
     /**
@@ -181,6 +294,25 @@ public enum LoggerUtil {
         log(Level.INFO, message);
     }
 
+    /**
+     * Logs an informational message, formatting it only if the level is enabled.
+     * 
+     * @param format the String.format pattern for the message
+     * @param args   the pattern's arguments
+     */
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    /**
+     * Logs an informational message, building it only if the level is enabled.
+     * 
+     * @param message supplies the log message
+     */
+    public void info(Supplier<String> message) {
+        log(Level.INFO, message);
+    }
+
     /**
      * Logs a warning message.
      * 
@@ -190,6 +322,25 @@ public enum LoggerUtil {
         log(Level.WARNING, message);
     }
 
+    /**
+     * Logs a warning message, formatting it only if the level is enabled.
+     * 
+     * @param format the String.format pattern for the message
+     * @param args   the pattern's arguments
+     */
+    public void warning(String format, Object... args) {
+        log(Level.WARNING, format, args);
+    }
+
+    /**
+     * Logs a warning message, building it only if the level is enabled.
+     * 
+     * @param message supplies the log message
+     */
+    public void warning(Supplier<String> message) {
+        log(Level.WARNING, message);
+    }
+
     /**
      * Logs a severe error message.
      * 
@@ -199,6 +350,25 @@ public enum LoggerUtil {
         log(Level.SEVERE, message);
     }
 
+    /**
+     * Logs a severe error message, formatting it only if the level is enabled.
+     * 
+     * @param format the String.format pattern for the message
+     * @param args   the pattern's arguments
+     */
+    public void severe(String format, Object... args) {
+        log(Level.SEVERE, format, args);
+    }
+
+    /**
+     * Logs a severe error message, building it only if the level is enabled.
+     * 
+     * @param message supplies the log message
+     */
+    public void severe(Supplier<String> message) {
+        log(Level.SEVERE, message);
+    }
+
     /**
      * Logs a fine-grained informational message.
      * 
@@ -208,6 +378,25 @@ public enum LoggerUtil {
         log(Level.FINE, message);
     }
 
+    /**
+     * Logs a fine-grained informational message, formatting it only if the level is enabled.
+     * 
+     * @param format the String.format pattern for the message
+     * @param args   the pattern's arguments
+     */
+    public void fine(String format, Object... args) {
+        log(Level.FINE, format, args);
+    }
+
+    /**
+     * Logs a fine-grained informational message, building it only if the level is enabled.
+     * 
+     * @param message supplies the log message
+     */
+    public void fine(Supplier<String> message) {
+        log(Level.FINE, message);
+    }
+
     /**
      * Logs a finer-grained informational message.
      * 
@@ -217,6 +406,25 @@ public enum LoggerUtil {
         log(Level.FINER, message);
     }
 
+    /**
+     * Logs a finer-grained informational message, formatting it only if the level is enabled.
+     * 
+     * @param format the String.format pattern for the message
+     * @param args   the pattern's arguments
+     */
+    public void finer(String format, Object... args) {
+        log(Level.FINER, format, args);
+    }
+
+    /**
+     * Logs a finer-grained informational message, building it only if the level is enabled.
+     * 
+     * @param message supplies the log message
+     */
+    public void finer(Supplier<String> message) {
+        log(Level.FINER, message);
+    }
+
     /**
      * Logs the finest-grained informational message.
      * 
@@ -226,6 +434,25 @@ public enum LoggerUtil {
         log(Level.FINEST, message);
     }
 
+    /**
+     * Logs the finest-grained informational message, formatting it only if the level is enabled.
+     * 
+     * @param format the String.format pattern for the message
+     * @param args   the pattern's arguments
+     */
+    public void finest(String format, Object... args) {
+        log(Level.FINEST, format, args);
+    }
+
+    /**
+     * Logs the finest-grained informational message, building it only if the level is enabled.
+     * 
+     * @param message supplies the log message
+     */
+    public void finest(Supplier<String> message) {
+        log(Level.FINEST, message);
+    }
+
     /**
      * Logs an exception at the specified level.
      * 
@@ -236,7 +463,41 @@ public enum LoggerUtil {
     public void log(Level level, String message, Throwable throwable) {
         if (!isConfigured)
             setupLogger();
-        logger.log(level, message, throwable);
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        LogRecord record = newRecord(level, message, config.isCallerLookup());
+        record.setThrown(throwable);
+        record.setLoggerName(logger.getName());
+        logger.log(record);
+    }
+
+    /**
+     * Builds a record with its source already settled, so the formatter never
+     * asks LogRecord to infer it (that walks the stack too, and on the async
+     * writer it would find the wrong class).
+     * 
+     * @param level        the level of the log message
+     * @param message      the log message
+     * @param callerLookup true to find the calling class, false to leave it
+     *                     "unknown"
+     * @return the record
+     */
+    static LogRecord newRecord(Level level, String message, boolean callerLookup) {
+        LogRecord record = new LogRecord(level, message);
+        // set even when off (an unset source is inferred on first use); the
+        // caller has to be found here, on the calling thread
+        record.setSourceClassName(callerLookup ? CustomFormatter.getCallingClassName() : null);
+        return record;
+    }
+
+    /**
+     * Gets the number of records the async writer had to drop.
+     * 
+     * @return the drop count (always 0 when logging synchronously)
+     */
+    public long getDroppedCount() {
+        return asyncHandler == null ? 0 : asyncHandler.getDroppedCount();
     }
 
     /**
@@ -279,6 +540,11 @@ public enum LoggerUtil {
         private String logLocation = "application.log";
         private Level fileLogLevel = Level.ALL; // default log level for file
         private Level consoleLogLevel = Level.ALL; // default log level for console
+        private boolean async = false; // hand records to a background writer
+        private int asyncBufferSize = 8192; // records the async writer can fall behind by
+        private AsyncLogHandler.OverflowPolicy overflowPolicy = AsyncLogHandler.OverflowPolicy.BLOCK;
+        private int sampleRate = 100; // keep 1 of every N overflowing records when sampling
+        private boolean callerLookup = true; // show the calling class in each record
 
         // Getters and Setters for each property
 
@@ -371,6 +637,99 @@ public enum LoggerUtil {
         public void setConsoleLogLevel(Level consoleLogLevel) {
             this.consoleLogLevel = consoleLogLevel;
         }
+
+        /**
+         * Checks if records are written by a background thread.
+         * 
+         * @return true for async logging
+         */
+        public boolean isAsync() {
+            return async;
+        }
+
+        /**
+         * Sets if records are written by a background thread.
+         * 
+         * @param async true for async logging
+         */
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+
+        /**
+         * Gets the size of the async ring buffer.
+         * 
+         * @return the number of records that can wait for the writer
+         */
+        public int getAsyncBufferSize() {
+            return asyncBufferSize;
+        }
+
+        /**
+         * Sets the size of the async ring buffer (rounded up to a power of two).
+         * 
+         * @param asyncBufferSize the number of records that can wait for the writer
+         */
+        public void setAsyncBufferSize(int asyncBufferSize) {
+            this.asyncBufferSize = asyncBufferSize;
+        }
+
+        /**
+         * Gets what happens to INFO and below when the async buffer is full.
+         * 
+         * @return the overflow policy
+         */
+        public AsyncLogHandler.OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        /**
+         * Sets what happens to INFO and below when the async buffer is full.
+         * 
+         * @param overflowPolicy the overflow policy
+         */
+        public void setOverflowPolicy(AsyncLogHandler.OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        /**
+         * Gets how many overflowing records are seen per record kept when
+         * sampling.
+         * 
+         * @return the sample rate
+         */
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        /**
+         * Sets how many overflowing records are seen per record kept when
+         * sampling.
+         * 
+         * @param sampleRate the sample rate
+         */
+        public void setSampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        /**
+         * Checks if each record looks up the class that logged it.
+         * 
+         * @return true to show the calling class
+         */
+        public boolean isCallerLookup() {
+            return callerLookup;
+        }
+
+        /**
+         * Sets if each record looks up the class that logged it. Turning it off
+         * skips the stack walk and shows "unknown" as the source.
+         * 
+         * @param callerLookup true to show the calling class
+         */
+        public void setCallerLookup(boolean callerLookup) {
+            this.callerLookup = callerLookup;
+        }
     }
 
     /**
@@ -0,0 +1,42 @@
+package Project.Common;
+
+import java.io.IOException;
+
+/**
+ * Converts a Payload to/from the bytes of a single frame body.
+ * Implementations must be stateless so one instance can serve every
+ * connection (and so an encoded frame can be shared between recipients).
+ */
+public interface PayloadCodec {
+    /**
+     * @return the id sent during the connect handshake (1-7)
+     */
+    int getId();
+
+    /**
+     * @return a readable name for logs/config
+     */
+    String getName();
+
+    /**
+     * Encodes the payload leaving the first <code>reserve</code> bytes of the
+     * returned array untouched so the caller can write a header without copying
+     *
+     * @param payload
+     * @param reserve number of leading bytes to leave for the caller
+     * @return the encoded bytes (including the reserved prefix)
+     * @throws IOException
+     */
+    byte[] encode(Payload payload, int reserve) throws IOException;
+
+    /**
+     * Decodes a frame body
+     *
+     * @param data   source array
+     * @param offset start of the frame body
+     * @param length size of the frame body
+     * @return the Payload
+     * @throws IOException if the bytes aren't a valid payload
+     */
+    Payload decode(byte[] data, int offset, int length) throws IOException;
+}
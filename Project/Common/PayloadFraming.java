@@ -0,0 +1,185 @@
+package Project.Common;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Length-prefixed framing for Payloads.
+ * <p>
+ * Each frame is a 4 byte length followed by that many bytes of a single Payload
+ * encoded by the connection's PayloadCodec.
+ * </p>
+ * <p>
+ * Handshake: a framed server starts with {@link #MAGIC} followed by one byte
+ * with a bit set for each codec id it accepts. The client answers with the id
+ * of the codec it picked (see {@link #negotiate(int)}) and both sides use that
+ * codec for every frame after. A classic server sends the ObjectOutputStream
+ * header instead, which starts with {@link #STREAM_MAGIC}, so the client can
+ * tell them apart with {@link #isFramed(int)}.
+ * </p>
+ */
+public final class PayloadFraming {
+    /**
+     * Hello sent by a framed server ("CHTF")
+     */
+    public static final int MAGIC = 0x43485446;
+    /**
+     * First two bytes of a java.io.ObjectOutputStream header
+     */
+    public static final short STREAM_MAGIC = (short) 0xACED;
+    /**
+     * Upper bound of a single frame's body, anything larger is treated as a
+     * corrupt stream
+     */
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
+    /**
+     * Size of the length prefix
+     */
+    public static final int HEADER_SIZE = Integer.BYTES;
+    /**
+     * Size of the server hello (magic + codec bits)
+     */
+    public static final int HELLO_SIZE = Integer.BYTES + 1;
+
+    // in order of preference
+    private static final PayloadCodec[] CODECS = { BinaryPayloadCodec.INSTANCE, SerializedPayloadCodec.INSTANCE };
+
+    private PayloadFraming() {
+    }
+
+    /**
+     * Checks the first two bytes received from the server
+     *
+     * @param firstTwoBytes the first two bytes as an unsigned short
+     * @return true if the server speaks the framed protocol
+     */
+    public static boolean isFramed(int firstTwoBytes) {
+        return (short) firstTwoBytes != STREAM_MAGIC;
+    }
+
+    /**
+     * Builds the server hello
+     *
+     * @param codecBits bit set of accepted codec ids (see {@link #bitFor(PayloadCodec)})
+     * @return the hello bytes
+     */
+    public static byte[] hello(int codecBits) {
+        return new byte[] { (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC,
+                (byte) codecBits };
+    }
+
+    /**
+     * @param codec
+     * @return the handshake bit for the codec
+     */
+    public static int bitFor(PayloadCodec codec) {
+        return 1 << codec.getId();
+    }
+
+    /**
+     * @return bits for every codec this build knows about
+     */
+    public static int allCodecBits() {
+        int bits = 0;
+        for (PayloadCodec codec : CODECS) {
+            bits |= bitFor(codec);
+        }
+        return bits;
+    }
+
+    /**
+     * Picks the preferred codec the other side accepts
+     *
+     * @param codecBits the server's accepted codecs
+     * @return the chosen codec, falling back to Java serialization
+     */
+    public static PayloadCodec negotiate(int codecBits) {
+        for (PayloadCodec codec : CODECS) {
+            if ((codecBits & bitFor(codec)) != 0) {
+                return codec;
+            }
+        }
+        return SerializedPayloadCodec.INSTANCE;
+    }
+
+    /**
+     * Looks up a codec by handshake id
+     *
+     * @param id
+     * @return the codec or null if unknown
+     */
+    public static PayloadCodec forId(int id) {
+        for (PayloadCodec codec : CODECS) {
+            if (codec.getId() == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks up a codec by name (case insensitive)
+     *
+     * @param name
+     * @return the codec or null if unknown
+     */
+    public static PayloadCodec forName(String name) {
+        for (PayloadCodec codec : CODECS) {
+            if (codec.getName().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encodes the Payload into a complete frame (length prefix included)
+     *
+     * @param payload
+     * @param codec
+     * @return the frame bytes
+     * @throws IOException
+     */
+    public static byte[] encode(Payload payload, PayloadCodec codec) throws IOException {
+        byte[] frame = codec.encode(payload, HEADER_SIZE);
+        int length = frame.length - HEADER_SIZE;
+        if (length > MAX_FRAME_SIZE) {
+            throw new IOException("Payload too large to frame: " + length + " bytes");
+        }
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    /**
+     * Blocking read of the next frame
+     *
+     * @param in    stream positioned at a frame boundary
+     * @param codec
+     * @return the Payload
+     * @throws EOFException when the stream ends cleanly between frames
+     * @throws IOException
+     */
+    public static Payload read(DataInputStream in, PayloadCodec codec) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return codec.decode(body, 0, length);
+    }
+
+    /**
+     * Validates a frame length read off the wire
+     *
+     * @param length
+     * @throws IOException if the length can't be valid
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+}
@@ -13,4 +13,9 @@ public enum PayloadType {
     FLIP, // Flip payload type
     MUTE, // Mutes client
     UNMUTE, // Unmutes client
+    HISTORY, // recent room messages replayed to a joiner
+    SEARCH, // client: search query, server: matching messages
+    PRESENCE, // batched joins/leaves of a busy room
+    ROOM_SNAPSHOT, // existing members of a room (or what changed since a reconnecting client's version)
+    ANNOUNCE, // message for every lobby shard, not only the sender's
 }
@@ -0,0 +1,73 @@
+package Project.Common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joins and leaves of a room collected over a short window, sent instead of
+ * one ROOM_JOIN per event when the room is busy. The room name is in the
+ * message field.
+ */
+public class PresenceDeltaPayload extends Payload {
+    private List<Long> addedIds = new ArrayList<Long>();
+    private List<String> addedNames = new ArrayList<String>();
+    private List<Long> removedIds = new ArrayList<Long>();
+    private List<String> removedNames = new ArrayList<String>();
+    private long roomVersion = -1;
+
+    public PresenceDeltaPayload() {
+        setPayloadType(PayloadType.PRESENCE);
+    }
+
+    public void addJoin(long clientId, String clientName) {
+        addedIds.add(clientId);
+        addedNames.add(clientName);
+    }
+
+    public void addLeave(long clientId, String clientName) {
+        removedIds.add(clientId);
+        removedNames.add(clientName);
+    }
+
+    public int getJoinCount() {
+        return addedIds.size();
+    }
+
+    public long getJoinedId(int index) {
+        return addedIds.get(index);
+    }
+
+    public String getJoinedName(int index) {
+        return addedNames.get(index);
+    }
+
+    public int getLeaveCount() {
+        return removedIds.size();
+    }
+
+    public long getLeftId(int index) {
+        return removedIds.get(index);
+    }
+
+    public String getLeftName(int index) {
+        return removedNames.get(index);
+    }
+
+    /**
+     * @return the room's membership version once this delta is applied, -1 if
+     *         unknown
+     */
+    public long getRoomVersion() {
+        return roomVersion;
+    }
+
+    public void setRoomVersion(long roomVersion) {
+        this.roomVersion = roomVersion;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PresenceDeltaPayload[%s:%s] +%s -%s", getMessage(), roomVersion, getJoinCount(),
+                getLeaveCount());
+    }
+}
@@ -0,0 +1,46 @@
+package Project.Common;
+
+/**
+ * Sent instead of a plain ConnectionPayload by a client that lost its
+ * connection and is coming back. It names the room the client was in (in
+ * the message field) and the last membership version it saw there, so the
+ * server can answer with only what changed since.
+ */
+public class ReconnectPayload extends ConnectionPayload {
+    private static final long serialVersionUID = 1L;
+    private long roomEpoch;
+    private long roomVersion;
+
+    /**
+     * @return identifies the room instance the version belongs to
+     */
+    public long getRoomEpoch() {
+        return roomEpoch;
+    }
+
+    /**
+     * @param roomEpoch identifies the room instance the version belongs to
+     */
+    public void setRoomEpoch(long roomEpoch) {
+        this.roomEpoch = roomEpoch;
+    }
+
+    /**
+     * @return the last membership version the client saw
+     */
+    public long getRoomVersion() {
+        return roomVersion;
+    }
+
+    /**
+     * @param roomVersion the last membership version the client saw
+     */
+    public void setRoomVersion(long roomVersion) {
+        this.roomVersion = roomVersion;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + String.format(" Resume [%s@%s:%s]", getMessage(), roomEpoch, roomVersion);
+    }
+}
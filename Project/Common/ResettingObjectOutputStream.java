@@ -0,0 +1,142 @@
+package Project.Common;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * ObjectOutputStream for long-lived connections that bounds its memory.
+ * <p>
+ * A plain ObjectOutputStream remembers every object it has written (its
+ * back-reference handle table) until reset() is called, so a stream that
+ * lives for a whole session keeps every Payload ever sent reachable. This one
+ * resets itself (which also clears the reading side's table) once either
+ * budget is used up since the last reset. Use {@link #writePayload(Object)}
+ * instead of writeObject() so the budgets are checked.
+ * </p>
+ */
+public class ResettingObjectOutputStream extends ObjectOutputStream {
+    /**
+     * Default bytes written between resets
+     */
+    public static final long DEFAULT_BYTE_BUDGET = 1024 * 1024;
+    /**
+     * Default objects written between resets
+     */
+    public static final int DEFAULT_OBJECT_BUDGET = 10_000;
+
+    private final CountingOutputStream counter;
+    private final long byteBudget;
+    private final int objectBudget;
+    private int retainedHandles = 0;
+    private long resetCount = 0;
+
+    /**
+     * Uses the default budgets
+     *
+     * @param out
+     * @throws IOException
+     */
+    public ResettingObjectOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BYTE_BUDGET, DEFAULT_OBJECT_BUDGET);
+    }
+
+    /**
+     * @param out          destination
+     * @param byteBudget   bytes written before a reset (0 or less means never)
+     * @param objectBudget objects written before a reset (0 or less means never)
+     * @throws IOException
+     */
+    public ResettingObjectOutputStream(OutputStream out, long byteBudget, int objectBudget) throws IOException {
+        this(new CountingOutputStream(out), byteBudget, objectBudget);
+    }
+
+    private ResettingObjectOutputStream(CountingOutputStream counter, long byteBudget, int objectBudget)
+            throws IOException {
+        super(counter);
+        this.counter = counter;
+        this.byteBudget = byteBudget <= 0 ? Long.MAX_VALUE : byteBudget;
+        this.objectBudget = objectBudget <= 0 ? Integer.MAX_VALUE : objectBudget;
+        // replaceObject() is only called for objects that aren't already in the handle table
+        enableReplaceObject(true);
+    }
+
+    /**
+     * Writes the object then resets the stream if a budget was used up
+     *
+     * @param obj
+     * @throws IOException
+     */
+    public void writePayload(Object obj) throws IOException {
+        writeObject(obj);
+        if (retainedHandles >= objectBudget || counter.count >= byteBudget) {
+            reset();
+        }
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+        retainedHandles++;
+        return obj;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        retainedHandles = 0;
+        counter.count = 0;
+        resetCount++;
+    }
+
+    /**
+     * Gets the number of objects kept in the handle table since the last reset
+     * (class descriptors aren't counted).
+     *
+     * @return the retained handle count
+     */
+    public int getRetainedHandles() {
+        return retainedHandles;
+    }
+
+    /**
+     * Gets the bytes written since the last reset.
+     *
+     * @return the byte count
+     */
+    public long getBytesSinceReset() {
+        return counter.count;
+    }
+
+    /**
+     * Gets how many times the stream has reset.
+     *
+     * @return the reset count
+     */
+    public long getResetCount() {
+        return resetCount;
+    }
+
+    /**
+     * Counts bytes on their way to the real stream
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
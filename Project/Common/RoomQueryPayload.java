@@ -0,0 +1,36 @@
+package Project.Common;
+
+/**
+ * A room search (ROOM_LIST) asking for one page of results.
+ * The query itself is the message; the cursor comes from the previous
+ * page's {@link RoomResultsPayload#getCursor()}.
+ */
+public class RoomQueryPayload extends Payload {
+    private int limit;
+    private String cursor;
+
+    public RoomQueryPayload() {
+        setPayloadType(PayloadType.ROOM_LIST);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RoomQueryPayload[%s] limit [%s] cursor [%s]", getMessage(), limit, cursor);
+    }
+}
@@ -5,6 +5,7 @@ import java.util.List;
 
 public class RoomResultsPayload extends Payload {
     private List<String> rooms = new ArrayList<String>();
+    private String cursor; // where the next page starts, null on the last page
 
     public RoomResultsPayload() {
         setPayloadType(PayloadType.ROOM_LIST);
@@ -17,4 +18,12 @@ public class RoomResultsPayload extends Payload {
     public void setRooms(List<String> rooms) {
         this.rooms = rooms;
     }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
 }
@@ -0,0 +1,112 @@
+package Project.Common;
+
+/**
+ * Who is in a room, sent to a joiner instead of one SYNC_CLIENT per member.
+ * <p>
+ * A full snapshot lists every member; big rooms are split over several
+ * payloads and each one is a complete batch on its own. A delta, sent to a
+ * client resuming after a reconnect, lists only the members that joined
+ * and left since the version the client reported.
+ * </p>
+ * <p>
+ * Every payload carries the room's membership epoch and version, which the
+ * client reports back when it reconnects. The room name is in the message
+ * field.
+ * </p>
+ */
+public class RoomSnapshotPayload extends Payload {
+    private static final long serialVersionUID = 1L;
+    private long[] clientIds = new long[0];
+    private String[] clientNames = new String[0];
+    private long[] removedIds = new long[0];
+    private boolean isDelta = false;
+    private long roomEpoch;
+    private long roomVersion;
+
+    public RoomSnapshotPayload() {
+        setPayloadType(PayloadType.ROOM_SNAPSHOT);
+    }
+
+    /**
+     * Sets the members in this chunk, or the members that joined for a delta
+     * 
+     * @param clientIds   member ids
+     * @param clientNames member names, same order and length as the ids
+     */
+    public void setClients(long[] clientIds, String[] clientNames) {
+        if (clientIds.length != clientNames.length) {
+            throw new IllegalArgumentException("Every client id needs a name");
+        }
+        this.clientIds = clientIds;
+        this.clientNames = clientNames;
+    }
+
+    public int size() {
+        return clientIds.length;
+    }
+
+    public long getClientId(int index) {
+        return clientIds[index];
+    }
+
+    public String getClientName(int index) {
+        return clientNames[index];
+    }
+
+    /**
+     * @param removedIds members that left since the client's version, deltas
+     *                   only
+     */
+    public void setRemovedIds(long[] removedIds) {
+        this.removedIds = removedIds;
+    }
+
+    public int getRemovedCount() {
+        return removedIds.length;
+    }
+
+    public long getRemovedId(int index) {
+        return removedIds[index];
+    }
+
+    /**
+     * @return true if this only holds the changes since the client's version
+     */
+    public boolean isDelta() {
+        return isDelta;
+    }
+
+    public void setDelta(boolean isDelta) {
+        this.isDelta = isDelta;
+    }
+
+    /**
+     * @return identifies this instance of the room, a room that's removed and
+     *         created again gets a new one
+     */
+    public long getRoomEpoch() {
+        return roomEpoch;
+    }
+
+    public void setRoomEpoch(long roomEpoch) {
+        this.roomEpoch = roomEpoch;
+    }
+
+    /**
+     * @return the room's membership version this payload brings the client up
+     *         to
+     */
+    public long getRoomVersion() {
+        return roomVersion;
+    }
+
+    public void setRoomVersion(long roomVersion) {
+        this.roomVersion = roomVersion;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RoomSnapshotPayload[%s@%s:%s] %s%s clients, %s removed", getMessage(), roomEpoch,
+                roomVersion, isDelta ? "delta, " : "", size(), getRemovedCount());
+    }
+}
@@ -0,0 +1,66 @@
+package Project.Common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answer to a <code>/search</code>: the matching messages, newest first. The
+ * query is echoed back in the message field.
+ */
+public class SearchResultsPayload extends Payload {
+    private List<Long> timestamps = new ArrayList<Long>();
+    private List<String> rooms = new ArrayList<String>();
+    private List<Long> clientIds = new ArrayList<Long>();
+    private List<String> clientNames = new ArrayList<String>();
+    private List<String> messages = new ArrayList<String>();
+
+    public SearchResultsPayload() {
+        setPayloadType(PayloadType.SEARCH);
+    }
+
+    /**
+     * Adds one match
+     * 
+     * @param timestamp  when it was said, epoch millis
+     * @param room       the room it was said in
+     * @param clientId   the sender's id
+     * @param clientName the sender's name, null if unknown (left or server message)
+     * @param message    the formatted message
+     */
+    public void add(long timestamp, String room, long clientId, String clientName, String message) {
+        timestamps.add(timestamp);
+        rooms.add(room);
+        clientIds.add(clientId);
+        clientNames.add(clientName);
+        messages.add(message);
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps.get(index);
+    }
+
+    public String getRoom(int index) {
+        return rooms.get(index);
+    }
+
+    public long getClientId(int index) {
+        return clientIds.get(index);
+    }
+
+    public String getClientName(int index) {
+        return clientNames.get(index);
+    }
+
+    public String getMessage(int index) {
+        return messages.get(index);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SearchResultsPayload[%s] %s matches", getMessage(), size());
+    }
+}
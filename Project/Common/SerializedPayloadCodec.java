@@ -0,0 +1,53 @@
+package Project.Common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Java serialization of each Payload as a self-contained object stream.
+ * Kept as the fallback codec; every frame carries full class descriptors.
+ */
+public class SerializedPayloadCodec implements PayloadCodec {
+    public static final int ID = 1;
+    public static final SerializedPayloadCodec INSTANCE = new SerializedPayloadCodec();
+
+    private SerializedPayloadCodec() {
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "serialization";
+    }
+
+    @Override
+    public byte[] encode(Payload payload, int reserve) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        for (int i = 0; i < reserve; i++) {
+            bytes.write(0);
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(payload);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Payload decode(byte[] data, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+            return (Payload) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            InvalidObjectException invalid = new InvalidObjectException("Frame isn't a Payload");
+            invalid.initCause(e);
+            throw invalid;
+        }
+    }
+}
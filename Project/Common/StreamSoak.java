@@ -0,0 +1,64 @@
+package Project.Common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Soak run for ResettingObjectOutputStream.
+ * <p>
+ * Pushes millions of chat payloads through a few long-lived streams, once with
+ * the default budgets and once without resets (the old behavior), and prints
+ * the retained heap per connection at each checkpoint. With resets the numbers
+ * stay flat; without them they grow with every message.
+ * </p>
+ * <pre>java -Xmx1g Project.Common.StreamSoak [messages] [connections]</pre>
+ */
+public class StreamSoak {
+    private static final int CHECKPOINTS = 10;
+
+    public static void main(String[] args) throws IOException {
+        long messages = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000L;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        System.out.println(String.format("%,d messages over %s connections", messages, connections));
+        run("reset on budget", messages, connections, ResettingObjectOutputStream.DEFAULT_BYTE_BUDGET,
+                ResettingObjectOutputStream.DEFAULT_OBJECT_BUDGET);
+        run("never reset", messages, connections, 0, 0);
+    }
+
+    private static void run(String label, long messages, int connections, long byteBudget, int objectBudget)
+            throws IOException {
+        System.out.println("== " + label);
+        long baseline = usedHeap();
+        ResettingObjectOutputStream[] streams = new ResettingObjectOutputStream[connections];
+        for (int i = 0; i < connections; i++) {
+            streams[i] = new ResettingObjectOutputStream(OutputStream.nullOutputStream(), byteBudget, objectBudget);
+        }
+        long step = Math.max(1, messages / CHECKPOINTS);
+        try {
+            for (long i = 1; i <= messages; i++) {
+                Payload p = new Payload();
+                p.setPayloadType(PayloadType.MESSAGE);
+                p.setClientId(i % 100);
+                p.setMessage("message number " + i);
+                streams[(int) (i % connections)].writePayload(p);
+                if (i % step == 0) {
+                    ResettingObjectOutputStream first = streams[0];
+                    System.out.println(String.format("%,12d msgs: %,10d KB/connection, %,8d handles, %,6d resets",
+                            i, (usedHeap() - baseline) / 1024 / connections, first.getRetainedHandles(),
+                            first.getResetCount()));
+                }
+            }
+        } catch (OutOfMemoryError e) {
+            streams = null; // free the tables so there's room to print
+            System.out.println("ran out of memory");
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
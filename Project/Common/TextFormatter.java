@@ -0,0 +1,198 @@
+package Project.Common;
+
+/**
+ * Turns chat markup into the HTML the clients render.
+ * <p>
+ * Supported markup (applied in this order, same as the old regex chain):
+ * <code>#r text r#</code> red, <code>#g text g#</code> green,
+ * <code>#b text b#</code> blue, <code>**text**</code> bold,
+ * <code>*text*</code> italic and <code>_text_</code> underline.
+ * </p>
+ * <p>
+ * Output is identical to running <code>replaceAll("#r(.+?)r#", ...)</code>
+ * and friends one after the other, without regex: the message is scanned
+ * once to find the markup characters (and line breaks, since a pair can't
+ * span lines), each rule then only walks those positions, and the result is
+ * copied into an exactly sized array once at the end. Delimiters used by an earlier rule can't be
+ * reused by a later one, but still count as content for it, just like the tags
+ * they turned into.
+ * </p>
+ */
+public final class TextFormatter {
+    private static final Rule[] RULES = {
+            new Rule("#r", "r#", "<span style='color:red;'>", "</span>"),
+            new Rule("#g", "g#", "<span style='color:green;'>", "</span>"),
+            new Rule("#b", "b#", "<span style='color:blue;'>", "</span>"),
+            new Rule("**", "**", "<b>", "</b>"),
+            new Rule("*", "*", "<i>", "</i>"),
+            new Rule("_", "_", "<u>", "</u>"),
+    };
+
+    private TextFormatter() {
+    }
+
+    /**
+     * Applies every markup rule to the message
+     *
+     * @param message raw chat text (null is returned as is)
+     * @return the formatted message, or the same instance if there was no markup
+     */
+    public static String format(String message) {
+        if (message == null) {
+            return null;
+        }
+        int length = message.length();
+        char[] text = message.toCharArray();
+        // single pass: remember where the markup characters and line breaks are
+        int[] tokens = null;
+        int tokenCount = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+            if (c == '#' || c == '*' || c == '_' || isLineTerminator(c)) {
+                if (tokens == null) {
+                    tokens = new int[16];
+                } else if (tokenCount == tokens.length) {
+                    int[] bigger = new int[tokenCount * 2];
+                    System.arraycopy(tokens, 0, bigger, 0, tokenCount);
+                    tokens = bigger;
+                }
+                tokens[tokenCount++] = i;
+            }
+        }
+        if (tokens == null) {
+            return message;
+        }
+        // tags[i]/widths[i] describe the delimiter starting at i,
+        // consumed[i] marks every delimiter character already used
+        String[] tags = null;
+        byte[] widths = null;
+        boolean[] consumed = null;
+        int outputLength = length;
+        for (Rule rule : RULES) {
+            int cursor = 0;
+            while (cursor < tokenCount) {
+                int open = tokens[cursor];
+                if (consumed != null && consumed[open] || !rule.matchesOpen(text, open, consumed)) {
+                    cursor++;
+                    continue;
+                }
+                int contentStart = open + rule.open.length;
+                int close = -1;
+                int next = cursor + 1;
+                for (; next < tokenCount; next++) {
+                    int position = tokens[next];
+                    if (isLineTerminator(text[position])) {
+                        break;
+                    }
+                    // the close delimiter's markup character is its last one ("r#") or first one ("**")
+                    int candidate = rule.closeMarkerFirst ? position : position - 1;
+                    if (candidate > contentStart && rule.matchesClose(text, candidate, consumed)) {
+                        close = candidate;
+                        break;
+                    }
+                }
+                if (close < 0) {
+                    if (next >= tokenCount) {
+                        break; // nothing later in the message can close either
+                    }
+                    cursor = next + 1; // nothing before this line break can match anymore
+                    continue;
+                }
+                if (tags == null) {
+                    tags = new String[length];
+                    widths = new byte[length];
+                    consumed = new boolean[length];
+                }
+                mark(consumed, open, rule.open.length);
+                mark(consumed, close, rule.close.length);
+                tags[open] = rule.openTag;
+                widths[open] = (byte) rule.open.length;
+                tags[close] = rule.closeTag;
+                widths[close] = (byte) rule.close.length;
+                outputLength += rule.openTag.length() + rule.closeTag.length() - rule.open.length
+                        - rule.close.length;
+                // keep searching after the close, like Matcher does
+                int resume = close + rule.close.length;
+                while (next < tokenCount && tokens[next] < resume) {
+                    next++;
+                }
+                cursor = next;
+            }
+        }
+        if (tags == null) {
+            return message;
+        }
+        char[] formatted = new char[outputLength];
+        int written = 0;
+        int copyFrom = 0;
+        for (int t = 0; t < tokenCount; t++) {
+            int position = tokens[t];
+            if (position < copyFrom || !consumed[position]) {
+                continue;
+            }
+            // close delimiters like "r#" start one character before their token
+            int start = tags[position] != null ? position : position - 1;
+            System.arraycopy(text, copyFrom, formatted, written, start - copyFrom);
+            written += start - copyFrom;
+            String tag = tags[start];
+            tag.getChars(0, tag.length(), formatted, written);
+            written += tag.length();
+            copyFrom = start + widths[start];
+        }
+        System.arraycopy(text, copyFrom, formatted, written, length - copyFrom);
+        return new String(formatted);
+    }
+
+    private static void mark(boolean[] consumed, int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            consumed[i] = true;
+        }
+    }
+
+    /**
+     * Same characters the regex <code>.</code> refuses to match
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * One open/close delimiter pair and the tags it turns into
+     */
+    private static final class Rule {
+        private final char[] open;
+        private final char[] close;
+        private final String openTag;
+        private final String closeTag;
+        private final boolean closeMarkerFirst;
+
+        Rule(String open, String close, String openTag, String closeTag) {
+            this.open = open.toCharArray();
+            this.close = close.toCharArray();
+            this.openTag = openTag;
+            this.closeTag = closeTag;
+            char first = close.charAt(0);
+            this.closeMarkerFirst = first == '#' || first == '*' || first == '_';
+        }
+
+        boolean matchesOpen(char[] text, int start, boolean[] consumed) {
+            return matches(text, start, open, consumed);
+        }
+
+        boolean matchesClose(char[] text, int start, boolean[] consumed) {
+            return matches(text, start, close, consumed);
+        }
+
+        private static boolean matches(char[] text, int start, char[] delimiter, boolean[] consumed) {
+            if (start < 0 || start + delimiter.length > text.length) {
+                return false;
+            }
+            for (int i = 0; i < delimiter.length; i++) {
+                if (text[start + i] != delimiter[i] || consumed != null && consumed[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
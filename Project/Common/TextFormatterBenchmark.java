@@ -0,0 +1,69 @@
+package Project.Common;
+
+/**
+ * Compares TextFormatter with the regex chain it replaced.
+ * <p>
+ * Builds messages of a few sizes with markup sprinkled through them, checks
+ * both produce the same output, warms up, then times each. Plain main() so it
+ * runs without extra tooling:
+ * </p>
+ * <pre>java Project.Common.TextFormatterBenchmark [iterations]</pre>
+ */
+public class TextFormatterBenchmark {
+    private static final int[] SIZES = { 64, 1024, 16 * 1024 };
+    private static final String[] SNIPPETS = { "#rred r#", "**bold**", "*italic*", "_under_", "#gok g#", "#bhey b#",
+            "plain words here", "*a **b** c*" };
+
+    /**
+     * The chain Room.processTextEffects used to run
+     */
+    private static String regexChain(String message) {
+        message = message.replaceAll("#r(.+?)r#", "<span style='color:red;'>$1</span>");
+        message = message.replaceAll("#g(.+?)g#", "<span style='color:green;'>$1</span>");
+        message = message.replaceAll("#b(.+?)b#", "<span style='color:blue;'>$1</span>");
+        message = message.replaceAll("\\*\\*(.+?)\\*\\*", "<b>$1</b>");
+        message = message.replaceAll("\\*(.+?)\\*", "<i>$1</i>");
+        message = message.replaceAll("_(.+?)_", "<u>$1</u>");
+        return message;
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        for (int size : SIZES) {
+            String message = buildMessage(size);
+            if (!regexChain(message).equals(TextFormatter.format(message))) {
+                throw new IllegalStateException("Outputs differ for size " + size);
+            }
+            int scaled = Math.max(10, iterations * 1024 / size);
+            // warm up both paths before timing
+            time(message, scaled, true);
+            time(message, scaled, false);
+            long regexNanos = time(message, scaled, true);
+            long formatterNanos = time(message, scaled, false);
+            System.out.println(String.format("%,7d chars: regex %,10.1f us/msg, formatter %,8.1f us/msg, %.1fx faster",
+                    message.length(), regexNanos / 1000.0 / scaled, formatterNanos / 1000.0 / scaled,
+                    (double) regexNanos / formatterNanos));
+        }
+    }
+
+    private static String buildMessage(int size) {
+        StringBuilder sb = new StringBuilder(size + 32);
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append(SNIPPETS[i % SNIPPETS.length]).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static long time(String message, int iterations, boolean regex) {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += (regex ? regexChain(message) : TextFormatter.format(message)).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.println(); // keeps the results observable
+        }
+        return elapsed;
+    }
+}
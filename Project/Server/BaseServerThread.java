@@ -1,30 +1,45 @@
 package Project.Server;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.logging.Level;
 
+import Project.Common.EncodedPayload;
 import Project.Common.LoggerUtil;
 import Project.Common.Payload;
 
 /**
  * Base class the handles the underlying connection between Client and Server-side
+ * <p>
+ * No longer a Thread itself; the reading/writing is done by a Connection which
+ * is either run on its own thread (platform or virtual) or multiplexed on an
+ * NioEventLoop.
+ * </p>
  */
-public abstract class BaseServerThread extends Thread {
-    
-    protected boolean isRunning = false; // control variable to stop this thread
-    protected ObjectOutputStream out; // exposed here for send()
-    protected Socket client; // communication directly to "my" client
-    
+public abstract class BaseServerThread {
+
+    protected volatile boolean isRunning = false; // control variable, false once the connection is gone
+    protected Connection connection; // transport to "my" client
+
     /**
      * A wrapper method so we don't need to keep typing out the long/complex sysout
      * line inside
-     * 
+     *
      * @param message
      */
     protected abstract void info(String message);
 
+    /**
+     * Same as {@link #info(String)} but the message is only formatted when
+     * INFO is enabled
+     *
+     * @param format String.format pattern
+     * @param args
+     */
+    protected void info(String format, Object... args) {
+        if (LoggerUtil.INSTANCE.isLoggable(Level.INFO)) {
+            info(String.format(format, args));
+        }
+    }
+
     /**
      * Triggered when object is fully initialized
      */
@@ -37,94 +52,88 @@ public abstract class BaseServerThread extends Thread {
     protected abstract void processPayload(Payload payload);
 
     /**
-     * Sends the payload over the socket
-     * 
+     * Binds this client to the connection that will carry its payloads
+     *
+     * @param connection
+     */
+    protected void attach(Connection connection) {
+        this.connection = connection;
+        connection.bind(this);
+        isRunning = true;
+    }
+
+    /**
+     * Sends the payload over the connection
+     *
      * @param payload
      * @return true if no errors were encountered
      */
     protected boolean send(Payload payload) {
+        return send(new EncodedPayload(payload));
+    }
+
+    /**
+     * Sends an already wrapped payload over the connection; used by broadcasts
+     * so every recipient shares the same encoded frame
+     *
+     * @param payload
+     * @return true if no errors were encountered, false if it failed or the
+     *         connection is already gone (so rooms drop the member)
+     */
+    protected boolean send(EncodedPayload payload) {
         if(!isRunning){
-            return true;
+            return false;
         }
-        try {
-            out.writeObject(payload);
-            out.flush();
-            return true;
-        } catch (IOException e) {
+        if (!connection.send(payload)) {
             info("Error sending message to client (most likely disconnected)");
-            // comment this out to inspect the stack trace
-            // e.printStackTrace();
             cleanup();
             return false;
         }
+        return true;
+    }
+
+    /**
+     * @return false once the connection is gone or being torn down
+     */
+    protected boolean isRunning() {
+        return isRunning;
     }
-    
+
     /**
      * One of the two ways to get this to exit the listen loop
      */
     protected void disconnect() {
         info("Thread being disconnected by server");
         isRunning = false;
-        this.interrupt(); // breaks out of blocking read in the run() method
-        cleanup(); // good practice to ensure data is written out immediately
+        cleanup(); // closing the connection breaks out of any blocking read
     }
 
-    @Override
-    public void run() {
-        info("Thread starting");
-        try (ObjectOutputStream out = new ObjectOutputStream(client.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(client.getInputStream());) {
-            this.out = out;
-            isRunning = true;
-            //onInitialized();
-            Payload fromClient;
-            /**
-             * isRunning is a flag to let us manage the loop exit condition
-             * fromClient (in.readObject()) is a blocking method that waits until data is received
-             *  - null would likely mean a disconnect so we use a "set and check" logic to alternatively exit the loop
-             */
-            while (isRunning) {
-                try{
-                    fromClient = (Payload) in.readObject(); // blocking method
-                    if (fromClient != null) {
-                        info("Received from my client: " + fromClient);
-                        processPayload(fromClient);
-                    }
-                    else{
-                        throw new IOException("Connection interrupted"); // Specific exception for a clean break
-                    }
-                }
-                catch (ClassCastException | ClassNotFoundException cce) {
-                    LoggerUtil.INSTANCE.severe("Error reading object as specified type: ", cce);
-                }
-                catch (IOException e) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        info("Thread interrupted during read (likely from the disconnect() method)");
-                        break;
-                    }
-                    LoggerUtil.INSTANCE.severe("IO exception while reading from client",e);
-                    break;
-                }
-            } // close while loop
-        } catch (Exception e) {
-            // happens when client disconnects
-            LoggerUtil.INSTANCE.severe("General Exception: ", e);
-            info("My Client disconnected");
-        } finally {
-            isRunning = false;
-            info("Exited thread loop. Cleaning up connection");
-            cleanup();
+    /**
+     * Handles a payload read off the wire, regardless of which engine read it
+     *
+     * @param fromClient
+     */
+    protected void receive(Payload fromClient) {
+        info("Received from my client: %s", fromClient);
+        processPayload(fromClient);
+    }
+
+    /**
+     * Triggered by the connection when the client goes away
+     */
+    protected void onConnectionClosed() {
+        if (!isRunning) {
+            return;
         }
+        isRunning = false;
+        info("Connection closed. Cleaning up connection");
+        cleanup();
     }
 
     protected void cleanup() {
         info("ServerThread cleanup() start");
-        try {
-            client.close();
-        } catch (IOException e) {
-            info("Client already closed");
-        }
-        
+        isRunning = false;
+        connection.close();
         info("ServerThread cleanup() end");
     }
 }
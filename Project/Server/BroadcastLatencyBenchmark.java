@@ -0,0 +1,163 @@
+package Project.Server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Project.Common.ConnectionPayload;
+import Project.Common.Payload;
+import Project.Common.PayloadCodec;
+import Project.Common.PayloadFraming;
+import Project.Common.PayloadType;
+
+/**
+ * Loopback test of how long a message takes to reach every member of a big
+ * room on a running server.
+ * <p>
+ * Connects the given number of clients (one virtual thread each) to the
+ * lobby, lets the joins settle, then has the first client send timestamped
+ * messages. Every member notes when each message arrived. Prints the
+ * latency over all deliveries and until the last member had each message;
+ * run it against a server with and without <code>--fanout-threshold</code>
+ * to compare. Needs a file descriptor per client on both sides.
+ * </p>
+ * <p>
+ * Every client has to land in the same room, so start the server with
+ * <code>--lobby-capacity=0</code>; otherwise a lobby past its capacity is
+ * split into shards and only the sender's shard is measured.
+ * </p>
+ * <pre>java Project.Server.Server 3000 --lobby-capacity=0 [--fanout-threshold=N]
+ * java Project.Server.BroadcastLatencyBenchmark [host] [port] [clients] [messages] [interval millis]</pre>
+ */
+public class BroadcastLatencyBenchmark {
+    private static final String PREFIX = "lat:";
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        int messages = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        long intervalMillis = args.length > 4 ? Long.parseLong(args[4]) : 200;
+        PayloadCodec codec = PayloadFraming.forName("binary");
+
+        // arrival time minus send time, per message per member; 0 means it never came
+        long[][] latencies = new long[messages][clients];
+        AtomicLong lastFrame = new AtomicLong(System.nanoTime());
+        List<Socket> sockets = new CopyOnWriteArrayList<>();
+        CountDownLatch connected = new CountDownLatch(clients);
+        DataOutputStream[] sender = new DataOutputStream[1];
+        for (int i = 0; i < clients; i++) {
+            int index = i;
+            Thread.ofVirtual().start(() -> {
+                try {
+                    Socket socket = new Socket(host, port);
+                    sockets.add(socket);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    in.readNBytes(PayloadFraming.HELLO_SIZE);
+                    out.writeByte(codec.getId());
+                    ConnectionPayload cp = new ConnectionPayload();
+                    cp.setClientName("lat" + index);
+                    out.write(PayloadFraming.encode(cp, codec));
+                    out.flush();
+                    if (index == 0) {
+                        sender[0] = out;
+                    }
+                    connected.countDown();
+                    while (true) {
+                        Payload payload = PayloadFraming.read(in, codec);
+                        long now = System.nanoTime();
+                        lastFrame.set(now);
+                        String message = payload.getMessage();
+                        if (payload.getPayloadType() == PayloadType.MESSAGE && message != null
+                                && message.startsWith(PREFIX)) {
+                            String[] parts = message.split(":");
+                            latencies[Integer.parseInt(parts[1])][index] = now - Long.parseLong(parts[2]);
+                        }
+                    }
+                } catch (IOException e) {
+                    // closed at the end of the run (or refused, which shows up as missing deliveries)
+                    connected.countDown();
+                }
+            });
+            if (i % 100 == 99) {
+                Thread.sleep(10); // stay under the accept backlog
+            }
+        }
+        while (!connected.await(2, TimeUnit.SECONDS)) {
+            System.out.println(String.format("connecting %s/%s", clients - connected.getCount(), clients));
+        }
+        awaitQuiet(lastFrame);
+        System.out.println(String.format("%,d clients joined, sending %s messages", sockets.size(), messages));
+
+        for (int m = 0; m < messages; m++) {
+            Payload payload = new Payload();
+            payload.setPayloadType(PayloadType.MESSAGE);
+            payload.setMessage(PREFIX + m + ":" + System.nanoTime());
+            sender[0].write(PayloadFraming.encode(payload, codec));
+            sender[0].flush();
+            Thread.sleep(intervalMillis);
+        }
+        awaitQuiet(lastFrame);
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        report(latencies);
+    }
+
+    private static void awaitQuiet(AtomicLong lastFrame) throws InterruptedException {
+        while (System.nanoTime() - lastFrame.get() < TimeUnit.SECONDS.toNanos(2)) {
+            Thread.sleep(100);
+        }
+    }
+
+    private static void report(long[][] latencies) {
+        long[] lastMember = new long[latencies.length];
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).filter(l -> l > 0).sorted().toArray();
+        long expected = (long) latencies.length * latencies[0].length;
+        for (int m = 0; m < latencies.length; m++) {
+            lastMember[m] = Arrays.stream(latencies[m]).max().orElse(0);
+        }
+        Arrays.sort(lastMember);
+        System.out.println(String.format("delivered %,d of %,d", all.length, expected));
+        long silent = Arrays.stream(slowestPerClient(latencies)).filter(l -> l == 0).count();
+        if (silent > 0) {
+            System.out.println(String.format(
+                    "%,d clients got none of the messages; was the server started with --lobby-capacity=0?",
+                    silent));
+        }
+        if (all.length == 0) {
+            return;
+        }
+        System.out.println(String.format("any member:  p50 %,8.2f ms, p99 %,8.2f ms, p99.9 %,8.2f ms, max %,8.2f ms",
+                percentile(all, 0.5), percentile(all, 0.99), percentile(all, 0.999), percentile(all, 1)));
+        System.out.println(String.format("last member: p50 %,8.2f ms, p99 %,8.2f ms, max %,8.2f ms",
+                percentile(lastMember, 0.5), percentile(lastMember, 0.99), percentile(lastMember, 1)));
+    }
+
+    /**
+     * @return per client, its latency for the slowest message, 0 if it got none
+     */
+    private static long[] slowestPerClient(long[][] latencies) {
+        long[] slowest = new long[latencies[0].length];
+        for (long[] message : latencies) {
+            for (int c = 0; c < message.length; c++) {
+                slowest[c] = Math.max(slowest[c], message[c]);
+            }
+        }
+        return slowest;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)));
+        return sorted[index] / 1e6;
+    }
+}
@@ -0,0 +1,369 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Durable, append-only record of every room message.
+ * <p>
+ * Rooms only enqueue; a single writer thread drains the queue in batches and
+ * appends to memory-mapped {@link ChatLogSegment} files, rolling to a new one
+ * when the current one is full. Segments are named by a sequence number and
+ * each keeps a sparse time index, so {@link #read(long, int)} jumps straight
+ * to the right place instead of scanning the whole log. The writer also
+ * feeds a {@link SearchIndex}, which {@link #search(String, String, int)}
+ * uses to find messages by their words. {@link #searchAsync(String, String, int)}
+ * runs a search on a few dedicated threads, since reading postings and
+ * records can fault pages in from disk.
+ * </p>
+ * <p>
+ * Written records live in the page cache as soon as they're copied into the
+ * mapping, so a crash of the server process only loses what was still
+ * queued. The mappings are also forced to disk every
+ * {@link #FORCE_INTERVAL_MILLIS} and whenever a segment is sealed, which
+ * bounds what an OS crash or power loss can take.
+ * </p>
+ */
+public class ChatLog {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int BATCH = 512;
+    private static final long FORCE_INTERVAL_MILLIS = 1000;
+    private static final int SEARCH_THREADS = 2;
+    private static final int SEARCH_BACKLOG = 256; // searches waiting for a thread, more are turned away
+    private static final Record CLOSE = new Record(null, 0, 0, null); // tells the writer to finish
+
+    /**
+     * One logged message
+     */
+    public static class Record {
+        private final String room;
+        private final long senderId;
+        private final long timestamp;
+        private final String message;
+
+        Record(String room, long senderId, long timestamp, String message) {
+            this.room = room;
+            this.senderId = senderId;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+
+        /**
+         * @return the room it was said in
+         */
+        public String getRoom() {
+            return room;
+        }
+
+        /**
+         * @return the sender's client id, or the default id for server messages
+         */
+        public long getSenderId() {
+            return senderId;
+        }
+
+        /**
+         * @return when it was said, epoch millis
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the message as it was sent to the room
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Record[%s] %s [%s]: %s", timestamp, room, senderId, message);
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<ChatLogSegment> segments = new CopyOnWriteArrayList<>(); // oldest first, last is appended to
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final Thread writer;
+    private final ExecutorService searches = new ThreadPoolExecutor(SEARCH_THREADS, SEARCH_THREADS, 0,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(SEARCH_BACKLOG),
+            Thread.ofPlatform().daemon().name("chat-log-search-", 1).factory());
+    private volatile boolean isRunning = true;
+
+    private ChatLog(Path dir, int segmentBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.writer = Thread.ofPlatform().daemon().name("chat-log-writer").unstarted(this::writeLoop);
+    }
+
+    /**
+     * Opens (or creates) the log in a directory, recovers the end of the last
+     * segment and starts the writer thread
+     *
+     * @param dir          where the segment files live
+     * @param segmentBytes size of each segment file
+     * @return the running log
+     * @throws IOException if the directory or a segment can't be opened
+     */
+    public static ChatLog open(Path dir, int segmentBytes) throws IOException {
+        ChatLog log = new ChatLog(dir, segmentBytes);
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(file -> file.toString().endsWith(ChatLogSegment.SUFFIX)).sorted()
+                    .toList()) {
+                log.segments.add(ChatLogSegment.open(file, segmentBytes));
+            }
+        }
+        if (log.segments.isEmpty()) {
+            log.segments.add(ChatLogSegment.create(dir, 0, segmentBytes));
+        } else {
+            log.segments.get(log.segments.size() - 1).openForAppend();
+        }
+        for (int i = 0; i < log.segments.size(); i++) {
+            log.searchIndex.load(log.segments.get(i), i < log.segments.size() - 1);
+        }
+        LoggerUtil.INSTANCE.info("Chat log at %s, %s segment(s)", dir.toAbsolutePath(), log.segments.size());
+        log.writer.start();
+        return log;
+    }
+
+    /**
+     * Queues a message for the writer; never blocks. If the writer has fallen
+     * too far behind the record is dropped and counted in ServerMetrics.
+     *
+     * @param room
+     * @param senderId
+     * @param message
+     * @return false if the record was dropped
+     */
+    public boolean append(String room, long senderId, String message) {
+        if (isRunning && queue.offer(new Record(room, senderId, System.currentTimeMillis(), message))) {
+            return true;
+        }
+        ServerMetrics.INSTANCE.onChatLogDropped(1);
+        return false;
+    }
+
+    /**
+     * Reads records at or after a time, oldest first. Only sees what the
+     * writer has appended so far.
+     *
+     * @param fromMillis earliest time wanted, epoch millis
+     * @param limit      most records to return
+     * @return the records
+     * @throws IOException if a segment can't be read
+     */
+    public List<Record> read(long fromMillis, int limit) throws IOException {
+        List<Record> out = new ArrayList<>(Math.min(limit, 256));
+        List<ChatLogSegment> snapshot = List.copyOf(segments);
+        // start in the last segment that begins at or before the time
+        int start = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.get(i).getFirstTime() <= fromMillis) {
+                start = i;
+            }
+        }
+        for (int i = start; i < snapshot.size() && out.size() < limit; i++) {
+            snapshot.get(i).read(fromMillis, limit, out);
+        }
+        return out;
+    }
+
+    /**
+     * Finds the newest messages containing every word of a query
+     *
+     * @param room  only search this room, or null for every room
+     * @param query words to look for, case-insensitive, markup is ignored
+     * @param limit most records to return
+     * @return matching records, newest first
+     * @throws IOException if a segment can't be read
+     */
+    public List<Record> search(String room, String query, int limit) throws IOException {
+        List<Record> out = new ArrayList<>(Math.min(limit, 256));
+        List<String> terms = SearchIndex.tokenize(query);
+        if (terms.isEmpty()) {
+            return out;
+        }
+        List<String> keys = SearchIndex.keys(room == null ? null : room.toLowerCase(Locale.ROOT), terms);
+        List<ChatLogSegment> snapshot = List.copyOf(segments);
+        for (int i = snapshot.size() - 1; i >= 0 && out.size() < limit; i--) {
+            ChatLogSegment segment = snapshot.get(i);
+            int[] offsets = searchIndex.find(segment.getSequence(), keys);
+            for (int j = offsets.length - 1; j >= 0 && out.size() < limit; j--) {
+                Record record = segment.readAt(offsets[j]);
+                if (record != null) {
+                    out.add(record);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Runs {@link #search(String, String, int)} on the log's search threads,
+     * keeping the disk reads off connection and room threads
+     *
+     * @param room  only search this room, or null for every room
+     * @param query words to look for
+     * @param limit most records to return
+     * @return completes with the matching records, newest first; fails with a
+     *         RejectedExecutionException if too many searches are waiting
+     */
+    public CompletableFuture<List<Record>> searchAsync(String room, String query, int limit) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return search(room, query, limit);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, searches);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return the directory holding the segments
+     */
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Stops taking records, lets the writer finish what's queued and flushes
+     * everything to disk. Safe to call more than once.
+     */
+    public void close() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        searches.shutdown();
+        try {
+            // bounded, a writer that stopped draining mustn't hang the shutdown
+            if (!queue.offer(CLOSE, 5, TimeUnit.SECONDS)) {
+                LoggerUtil.INSTANCE.warning("Chat log writer isn't draining, interrupting it");
+                writer.interrupt();
+            }
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(BATCH);
+        ChatLogSegment active = segments.get(segments.size() - 1);
+        long lastTime = active.getLastTime();
+        long lastForce = System.currentTimeMillis();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                Record first = queue.poll(FORCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH - 1);
+                }
+            } catch (InterruptedException e) {
+                closing = true;
+            }
+            int done = 0; // records of the batch that are in the log (or skipped for good)
+            try {
+                for (Record record : batch) {
+                    if (record == CLOSE) {
+                        closing = true;
+                        break;
+                    }
+                    // records from different rooms can be enqueued slightly out of order, keep the log
+                    // sorted so the time index stays valid
+                    lastTime = Math.max(lastTime, record.timestamp);
+                    byte[] room = record.room.getBytes(StandardCharsets.UTF_8);
+                    byte[] message = record.message.getBytes(StandardCharsets.UTF_8);
+                    int offset = active.append(lastTime, record.senderId, room, message);
+                    if (offset < 0) {
+                        active = roll(active);
+                        offset = active.append(lastTime, record.senderId, room, message);
+                    }
+                    if (offset < 0) {
+                        LoggerUtil.INSTANCE.warning("Chat log record from %s is larger than a segment, skipped",
+                                record.room);
+                    } else {
+                        searchIndex.add(active.getSequence(), offset, record.room, record.message);
+                    }
+                    done++;
+                }
+                long now = System.currentTimeMillis();
+                if (closing || now - lastForce >= FORCE_INTERVAL_MILLIS) {
+                    active.force();
+                    lastForce = now;
+                }
+            } catch (IOException | RuntimeException e) {
+                // keep the writer alive, a dead writer would fill the queue and drop everything after
+                LoggerUtil.INSTANCE.severe("Chat log write failed, dropping the rest of the batch", e);
+                // only what didn't make it in; a close queued behind the failure still has to happen
+                List<Record> dropped = batch.subList(done, batch.size());
+                closing |= dropped.remove(CLOSE);
+                ServerMetrics.INSTANCE.onChatLogDropped(dropped.size());
+            }
+            batch.clear();
+        }
+        try {
+            active.seal();
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.severe("Error closing chat log", e);
+        }
+    }
+
+    /**
+     * Seals a full segment and starts the next one. The next one is created
+     * first, so if that fails the full one is still the segment being
+     * appended to and the roll is tried again on the next record.
+     *
+     * @param full the segment that had no room left
+     * @return the segment to append to from now on
+     */
+    private ChatLogSegment roll(ChatLogSegment full) throws IOException {
+        ChatLogSegment next = ChatLogSegment.create(dir, full.getSequence() + 1, segmentBytes);
+        try {
+            full.seal();
+        } catch (IOException | RuntimeException e) {
+            try {
+                next.seal();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        segments.add(next);
+        try {
+            searchIndex.seal(full);
+        } catch (IOException | RuntimeException e) {
+            // its postings stay in memory and searchable, only the file is missing
+            LoggerUtil.INSTANCE.warning("Couldn't write the postings of chat log segment " + full.getSequence(), e);
+        }
+        return next;
+    }
+}
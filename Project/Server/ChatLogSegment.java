@@ -0,0 +1,369 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * One file of the {@link ChatLog}.
+ * <p>
+ * The file is preallocated to a fixed capacity and memory-mapped while it's
+ * the segment being appended to. Each record is
+ * <code>[int length][int crc32][long time][long senderId][short roomLength][room][message]</code>
+ * (strings in UTF-8), the length is written last so a record is either fully
+ * there or looks like the end of the data. A sparse index (time, offset) is
+ * kept for a record about every {@link #INDEX_INTERVAL} bytes, in memory and
+ * in a sidecar <code>.idx</code> file, so seeking to a time only scans the
+ * records between two index entries.
+ * </p>
+ * <p>
+ * Appends come from the ChatLog writer thread only; reads map the file
+ * separately and may run on any thread.
+ * </p>
+ */
+class ChatLogSegment {
+    static final String SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+    private static final int HEADER = 8; // length + crc
+    private static final int FIXED = 8 + 8 + 2; // time + senderId + roomLength
+    private static final int INDEX_ENTRY = 12; // long time + int offset
+    private static final int INDEX_INTERVAL = 4096;
+
+    private final long sequence;
+    private final Path path;
+    private final Path indexPath;
+    private final int capacity;
+    // sparse index, oldest first; the arrays are replaced when they grow
+    private final ReentrantLock indexLock = new ReentrantLock();
+    private long[] indexTimes = new long[16];
+    private int[] indexOffsets = new int[16];
+    private int indexSize = 0;
+    private volatile long lastTime = Long.MIN_VALUE;
+    private volatile ByteBuffer view; // read-only mapping shared by readers, absolute gets only
+    // writer only
+    private MappedByteBuffer buffer;
+    private FileChannel indexChannel;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY);
+    private final CRC32 crc = new CRC32();
+    private int position = 0;
+    private int lastIndexed = -INDEX_INTERVAL;
+
+    private ChatLogSegment(Path dir, long sequence, int capacity) {
+        this.sequence = sequence;
+        this.path = dir.resolve(String.format("%010d%s", sequence, SUFFIX));
+        this.indexPath = dir.resolve(String.format("%010d%s", sequence, INDEX_SUFFIX));
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates a new, empty segment ready for appends
+     */
+    static ChatLogSegment create(Path dir, long sequence, int capacity) throws IOException {
+        ChatLogSegment segment = new ChatLogSegment(dir, sequence, capacity);
+        Files.deleteIfExists(segment.indexPath);
+        segment.openForAppend();
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment read-only, loading its index
+     *
+     * @param file a <code>.log</code> file named by its sequence number
+     */
+    static ChatLogSegment open(Path file, int capacity) throws IOException {
+        String name = file.getFileName().toString();
+        long sequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        ChatLogSegment segment = new ChatLogSegment(file.getParent(), sequence, capacity);
+        if (Files.exists(segment.indexPath)) {
+            ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(segment.indexPath));
+            while (entries.remaining() >= INDEX_ENTRY) {
+                segment.addIndex(entries.getLong(), entries.getInt());
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Maps the file for writing and finds the end of the data, starting from
+     * the last index entry. Anything after the last intact record (a write
+     * torn by a crash) is cleared.
+     */
+    void openForAppend() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        indexLock.lock();
+        try {
+            while (indexSize > 0 && indexOffsets[indexSize - 1] >= capacity) {
+                indexSize--;
+            }
+            position = indexSize == 0 ? 0 : indexOffsets[indexSize - 1];
+            lastIndexed = indexSize == 0 ? -INDEX_INTERVAL : position;
+        } finally {
+            indexLock.unlock();
+        }
+        int length;
+        while ((length = validLength(buffer, position)) > 0) {
+            lastTime = buffer.getLong(position + HEADER);
+            position += HEADER + length;
+        }
+        if (position + 4 <= capacity && buffer.getInt(position) != 0) {
+            for (int i = position; i < capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        // drop index entries past the recovered end and rewrite the sidecar to match
+        indexLock.lock();
+        try {
+            while (indexSize > 0 && indexOffsets[indexSize - 1] >= position) {
+                indexSize--;
+            }
+            ByteBuffer entries = ByteBuffer.allocate(indexSize * INDEX_ENTRY);
+            for (int i = 0; i < indexSize; i++) {
+                entries.putLong(indexTimes[i]).putInt(indexOffsets[i]);
+            }
+            entries.flip();
+            indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            while (entries.hasRemaining()) {
+                indexChannel.write(entries);
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * Writes one record
+     *
+     * @param time     must not be older than {@link #getLastTime()}
+     * @param senderId
+     * @param room     UTF-8 room name, at most 65535 bytes
+     * @param message  UTF-8 message
+     * @return the record's offset, or -1 if the segment doesn't have room for it
+     */
+    int append(long time, long senderId, byte[] room, byte[] message) throws IOException {
+        int length = FIXED + room.length + message.length;
+        if (position + HEADER + length > capacity) {
+            return -1;
+        }
+        int start = position;
+        buffer.putLong(start + HEADER, time);
+        buffer.putLong(start + HEADER + 8, senderId);
+        buffer.putShort(start + HEADER + 16, (short) room.length);
+        buffer.put(start + HEADER + FIXED, room);
+        buffer.put(start + HEADER + FIXED + room.length, message);
+        crc.reset();
+        crc.update(buffer.slice(start + HEADER, length));
+        buffer.putInt(start + 4, (int) crc.getValue());
+        buffer.putInt(start, length); // last, publishes the record
+        position += HEADER + length;
+        lastTime = time;
+        if (start - lastIndexed >= INDEX_INTERVAL) {
+            lastIndexed = start;
+            addIndex(time, start);
+            indexEntry.clear();
+            indexEntry.putLong(time).putInt(start).flip();
+            while (indexEntry.hasRemaining()) {
+                indexChannel.write(indexEntry);
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Flushes written records to the disk
+     */
+    void force() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            indexChannel.force(false);
+        }
+    }
+
+    /**
+     * Flushes and stops appending, the segment stays readable
+     */
+    void seal() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        force();
+        indexChannel.close();
+        indexChannel = null;
+        buffer = null; // unmapped once collected
+    }
+
+    /**
+     * Collects records at or after a time, oldest first
+     *
+     * @param fromMillis earliest time wanted
+     * @param limit      stop once out holds this many
+     * @param out        receives the records
+     */
+    void read(long fromMillis, int limit, List<ChatLog.Record> out) throws IOException {
+        if (out.size() >= limit) {
+            return;
+        }
+        ByteBuffer data = view();
+        int offset = seek(fromMillis);
+        int length;
+        while (out.size() < limit && (length = validLength(data, offset)) > 0) {
+            if (data.getLong(offset + HEADER) >= fromMillis) {
+                out.add(decode(data, offset, length));
+            }
+            offset += HEADER + length;
+        }
+    }
+
+    /**
+     * @param offset where a record starts, as returned by append()
+     * @return the record, or null if there's no intact record there
+     */
+    ChatLog.Record readAt(int offset) throws IOException {
+        ByteBuffer data = view();
+        int length = validLength(data, offset);
+        return length == 0 ? null : decode(data, offset, length);
+    }
+
+    /**
+     * Visits every record from the start of the segment
+     *
+     * @param visitor receives each record and its offset
+     */
+    void scan(ObjIntConsumer<ChatLog.Record> visitor) throws IOException {
+        ByteBuffer data = view();
+        int offset = 0;
+        int length;
+        while ((length = validLength(data, offset)) > 0) {
+            visitor.accept(decode(data, offset, length), offset);
+            offset += HEADER + length;
+        }
+    }
+
+    /**
+     * Maps the file read-only the first time it's read. The file is
+     * preallocated, so the mapping also sees records appended later.
+     */
+    private ByteBuffer view() throws IOException {
+        ByteBuffer data = view;
+        if (data == null) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), capacity));
+            }
+            view = data;
+        }
+        return data;
+    }
+
+    /**
+     * @return offset of the last indexed record strictly before the time, so
+     *         every record at or after it is found by scanning forward
+     */
+    int seek(long fromMillis) {
+        indexLock.lock();
+        try {
+            int low = 0;
+            int high = indexSize - 1;
+            int found = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (indexTimes[mid] < fromMillis) {
+                    found = indexOffsets[mid];
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * @return time of the first record, or Long.MAX_VALUE if it's empty
+     */
+    long getFirstTime() {
+        indexLock.lock();
+        try {
+            return indexSize == 0 ? Long.MAX_VALUE : indexTimes[0];
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * @return time of the last record appended since the segment was opened
+     *         for appending
+     */
+    long getLastTime() {
+        return lastTime;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    private void addIndex(long time, int offset) {
+        indexLock.lock();
+        try {
+            if (indexSize == indexTimes.length) {
+                indexTimes = Arrays.copyOf(indexTimes, indexSize * 2);
+                indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+            }
+            indexTimes[indexSize] = time;
+            indexOffsets[indexSize] = offset;
+            indexSize++;
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * @return the payload length of an intact record at the offset, or 0 at the
+     *         end of the data (or a torn record)
+     */
+    private static int validLength(ByteBuffer data, int offset) {
+        if (offset + HEADER > data.limit()) {
+            return 0;
+        }
+        int length = data.getInt(offset);
+        if (length < FIXED || offset + HEADER + length > data.limit()) {
+            return 0;
+        }
+        CRC32 check = new CRC32();
+        check.update(data.slice(offset + HEADER, length));
+        return (int) check.getValue() == data.getInt(offset + 4) ? length : 0;
+    }
+
+    private static ChatLog.Record decode(ByteBuffer data, int offset, int length) {
+        long time = data.getLong(offset + HEADER);
+        long senderId = data.getLong(offset + HEADER + 8);
+        int roomLength = data.getShort(offset + HEADER + 16) & 0xFFFF;
+        String room = string(data, offset + HEADER + FIXED, roomLength);
+        String message = string(data, offset + HEADER + FIXED + roomLength, length - FIXED - roomLength);
+        return new ChatLog.Record(room, senderId, time, message);
+    }
+
+    private static String string(ByteBuffer data, int offset, int length) {
+        byte[] bytes = new byte[length];
+        data.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
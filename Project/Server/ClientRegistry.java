@@ -0,0 +1,209 @@
+package Project.Server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Every initialized client on the server, indexed by id and by name.
+ * <p>
+ * Ids come from an atomic counter, so concurrent logins never share one.
+ * Names are indexed case-insensitively (the same way rooms are), so finding
+ * a client for a private message or mute is a single map lookup instead of a
+ * scan of the room. Nothing here takes a lock: the indexes are
+ * ConcurrentHashMaps and duplicate names are kept as small copy-on-write
+ * arrays inside a map entry.
+ * </p>
+ * <p>
+ * Other parts of the server can react to clients coming and going through
+ * {@link Listener}s.
+ * </p>
+ */
+public class ClientRegistry {
+    /**
+     * Lifecycle hooks, called on the thread that registered/unregistered the
+     * client
+     */
+    public interface Listener {
+        /**
+         * A client finished initializing and got its id
+         *
+         * @param client
+         */
+        default void onConnect(ServerThread client) {
+        }
+
+        /**
+         * A client left the server
+         *
+         * @param client
+         */
+        default void onDisconnect(ServerThread client) {
+        }
+    }
+
+    private final AtomicLong nextClientId = new AtomicLong(1);
+    private final ConcurrentHashMap<Long, ServerThread> byId = new ConcurrentHashMap<>();
+    // folded name -> every connected client using it (almost always just one)
+    private final ConcurrentHashMap<String, ServerThread[]> byName = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Hands out the next client id, wrapping back to 1 instead of going negative
+     *
+     * @return a new id
+     */
+    protected long nextClientId() {
+        return nextClientId.getAndUpdate(id -> id == Long.MAX_VALUE ? 1 : id + 1);
+    }
+
+    /**
+     * Indexes the client and notifies the listeners
+     *
+     * @param client an initialized client with its name and id (from
+     *               {@link #nextClientId()}) set
+     */
+    protected void register(ServerThread client) {
+        long id = client.getClientId();
+        byId.put(id, client);
+        byName.compute(fold(client.getClientName()), (name, holders) -> append(holders, client));
+        LoggerUtil.INSTANCE.fine("Registered client %s[%s], %s online", client.getClientName(), id, byId.size());
+        for (Listener listener : listeners) {
+            listener.onConnect(client);
+        }
+    }
+
+    /**
+     * Removes the client from the indexes and notifies the listeners.
+     * Safe to call more than once or for a client that never registered.
+     *
+     * @param client
+     * @return true if the client was registered
+     */
+    protected boolean unregister(ServerThread client) {
+        if (!byId.remove(client.getClientId(), client)) {
+            return false;
+        }
+        byName.computeIfPresent(fold(client.getClientName()), (name, holders) -> remove(holders, client));
+        LoggerUtil.INSTANCE.fine("Unregistered client %s[%s], %s online", client.getClientName(),
+                client.getClientId(), byId.size());
+        for (Listener listener : listeners) {
+            listener.onDisconnect(client);
+        }
+        return true;
+    }
+
+    /**
+     * @param clientId
+     * @return the client or null if there's no client with that id
+     */
+    public ServerThread findById(long clientId) {
+        return byId.get(clientId);
+    }
+
+    /**
+     * Case-insensitive lookup by name
+     *
+     * @param name
+     * @return the first client to connect with the name, or null
+     */
+    public ServerThread findByName(String name) {
+        return findByName(name, client -> true);
+    }
+
+    /**
+     * Case-insensitive lookup by name, for when more than one client may be
+     * using it
+     *
+     * @param name
+     * @param filter which of the clients with that name qualify
+     * @return the first qualifying client to connect with the name, or null
+     */
+    public ServerThread findByName(String name, Predicate<ServerThread> filter) {
+        if (name == null) {
+            return null;
+        }
+        ServerThread[] holders = byName.get(fold(name));
+        if (holders != null) {
+            for (ServerThread client : holders) {
+                if (filter.test(client)) {
+                    return client;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a live, read-only view of the connected clients
+     */
+    public Collection<ServerThread> getClients() {
+        return Collections.unmodifiableCollection(byId.values());
+    }
+
+    /**
+     * @return the number of connected clients
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * @param listener notified of every later connect/disconnect
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private static String fold(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
+    }
+
+    private static ServerThread[] append(ServerThread[] holders, ServerThread client) {
+        if (holders == null) {
+            return new ServerThread[] { client };
+        }
+        ServerThread[] grown = new ServerThread[holders.length + 1];
+        System.arraycopy(holders, 0, grown, 0, holders.length);
+        grown[holders.length] = client;
+        return grown;
+    }
+
+    /**
+     * @return the holders without the client, or null (removing the entry) if
+     *         nobody else uses the name
+     */
+    private static ServerThread[] remove(ServerThread[] holders, ServerThread client) {
+        int index = -1;
+        for (int i = 0; i < holders.length; i++) {
+            if (holders[i] == client) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return holders;
+        }
+        if (holders.length == 1) {
+            return null;
+        }
+        ServerThread[] shrunk = new ServerThread[holders.length - 1];
+        System.arraycopy(holders, 0, shrunk, 0, index);
+        System.arraycopy(holders, index + 1, shrunk, index, holders.length - index - 1);
+        return shrunk;
+    }
+}
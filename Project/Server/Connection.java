@@ -0,0 +1,46 @@
+package Project.Server;
+
+import Project.Common.EncodedPayload;
+import Project.Common.Payload;
+
+/**
+ * Transport that carries payloads between a BaseServerThread and its client.
+ * Implementations decide which thread does the actual socket work.
+ */
+public interface Connection {
+    /**
+     * Sets the client-side representation that receives decoded payloads
+     *
+     * @param owner
+     */
+    void bind(BaseServerThread owner);
+
+    /**
+     * Delivers the payload to the client
+     *
+     * @param payload
+     * @return false if the connection is no longer usable
+     */
+    default boolean send(Payload payload) {
+        return send(new EncodedPayload(payload));
+    }
+
+    /**
+     * Delivers an already wrapped payload to the client, reusing its encoded
+     * frame when other recipients already encoded it with the same codec
+     *
+     * @param payload
+     * @return false if the connection is no longer usable
+     */
+    boolean send(EncodedPayload payload);
+
+    /**
+     * Closes the underlying channel, safe to call more than once
+     */
+    void close();
+
+    /**
+     * @return true while the connection can still send/receive
+     */
+    boolean isOpen();
+}
@@ -0,0 +1,114 @@
+package Project.Server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import Project.Common.DirectMessagePayload;
+import Project.Common.EncodedPayload;
+import Project.Common.LoggerUtil;
+import Project.Common.TextFormatter;
+
+/**
+ * Delivers <code>@name</code> private messages to anyone on the server.
+ * <p>
+ * The target is found through the {@link ClientRegistry} name index and the
+ * message goes straight onto both clients' connections (one shared frame),
+ * so neither Room's lock is involved. Each pair of clients has a
+ * conversation with its own sequence number; numbering and enqueueing happen
+ * under that conversation's lock, so both sides receive a conversation's
+ * messages in the same order even when they write to each other at once.
+ * </p>
+ */
+public class DirectMessageRouter implements ClientRegistry.Listener {
+    private final ClientRegistry clients;
+    // client id -> peer id -> conversation, the same conversation is stored under both ids
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<Long, Conversation>> conversations = new ConcurrentHashMap<>();
+
+    /**
+     * @param clients used to find targets, the router also listens to it to
+     *                forget conversations of clients that left
+     */
+    public DirectMessageRouter(ClientRegistry clients) {
+        this.clients = clients;
+        clients.addListener(this);
+    }
+
+    /**
+     * Sends a private message and echoes it back to the sender
+     *
+     * @param sender
+     * @param targetName case-insensitive name of the recipient
+     * @param message    raw text, markup is applied here
+     * @return true if the target was found
+     */
+    public boolean send(ServerThread sender, String targetName, String message) {
+        ServerThread target = clients.findByName(targetName);
+        if (target == null) {
+            sender.sendMessage(sender.getClientId(), String.format("User %s not found.", targetName), true);
+            return false;
+        }
+        DirectMessagePayload payload = new DirectMessagePayload();
+        payload.setClientId(sender.getClientId());
+        payload.setTargetUsername(target.getClientName());
+        payload.setMessage(String.format("[Private message from %s]: %s", sender.getClientName(),
+                TextFormatter.format(message)));
+        Conversation conversation = conversation(sender.getClientId(), target.getClientId());
+        conversation.lock.lock();
+        try {
+            payload.setSequence(++conversation.sequence);
+            // wrapped only once it's final, a wrapped payload must not change
+            EncodedPayload frame = new EncodedPayload(payload);
+            target.send(frame);
+            if (target != sender) {
+                sender.send(frame);
+            }
+        } finally {
+            conversation.lock.unlock();
+        }
+        LoggerUtil.INSTANCE.fine("DM #%s %s -> %s", payload.getSequence(), sender.getClientName(),
+                target.getClientName());
+        return true;
+    }
+
+    @Override
+    public void onDisconnect(ServerThread client) {
+        long clientId = client.getClientId();
+        ConcurrentHashMap<Long, Conversation> peers = conversations.remove(clientId);
+        if (peers == null) {
+            return;
+        }
+        for (Long peerId : peers.keySet()) {
+            ConcurrentHashMap<Long, Conversation> theirs = conversations.get(peerId);
+            if (theirs != null) {
+                theirs.remove(clientId);
+            }
+        }
+    }
+
+    /**
+     * Finds or creates the conversation between two clients. The lower id's
+     * map decides which instance wins if both sides create it at once.
+     */
+    private Conversation conversation(long a, long b) {
+        long low = Math.min(a, b);
+        long high = Math.max(a, b);
+        ConcurrentHashMap<Long, Conversation> lowPeers = conversations.computeIfAbsent(low,
+                id -> new ConcurrentHashMap<>());
+        Conversation conversation = lowPeers.get(high);
+        if (conversation == null) {
+            conversation = lowPeers.computeIfAbsent(high, id -> new Conversation());
+            if (high != low) {
+                conversations.computeIfAbsent(high, id -> new ConcurrentHashMap<>()).putIfAbsent(low, conversation);
+            }
+        }
+        return conversation;
+    }
+
+    /**
+     * Ordering state shared by the two participants
+     */
+    private static class Conversation {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long sequence = 0; // guarded by lock
+    }
+}
@@ -0,0 +1,159 @@
+package Project.Server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import Project.Common.RoomSnapshotPayload;
+
+/**
+ * Versioned record of who joined and left a Room, so a client that
+ * reconnects can be sent only what changed since the version it last saw.
+ * <p>
+ * Every join or leave bumps the version and goes into a ring of the most
+ * recent changes. The ring starts small and grows up to its capacity, so
+ * quiet rooms stay cheap. A version older than the ring (or from an earlier
+ * room with the same name, told apart by the epoch) can't be served and the
+ * client gets a full snapshot instead.
+ * </p>
+ * <p>
+ * Not thread-safe, the owning Room only touches it from its mailbox.
+ * </p>
+ */
+public class MembershipJournal {
+    private static final int INITIAL_SIZE = 16;
+
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final int capacity;
+    private long version = 0;
+    private long[] ids = new long[0];
+    private String[] names = new String[0];
+    private boolean[] joins = new boolean[0];
+    private int head = 0; // index of the oldest change
+    private int count = 0;
+
+    /**
+     * @param capacity most changes to remember, 0 only tracks the version
+     */
+    public MembershipJournal(int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * Records a join or leave
+     *
+     * @param clientId
+     * @param clientName
+     * @param isJoin
+     * @return the new version
+     */
+    public long record(long clientId, String clientName, boolean isJoin) {
+        version++;
+        if (capacity == 0) {
+            return version;
+        }
+        if (count == ids.length && ids.length < capacity) {
+            grow();
+        }
+        if (count == ids.length) {
+            // full, overwrite the oldest
+            head = (head + 1) % ids.length;
+            count--;
+        }
+        int slot = (head + count) % ids.length;
+        ids[slot] = clientId;
+        names[slot] = clientName;
+        joins[slot] = isJoin;
+        count++;
+        return version;
+    }
+
+    /**
+     * @param epoch   the epoch the client saw
+     * @param version the version the client saw
+     * @return true if every change after the version is still in the journal
+     */
+    public boolean covers(long epoch, long version) {
+        return epoch == this.epoch && version <= this.version && version >= this.version - count;
+    }
+
+    /**
+     * Builds the changes since a version; only the last change of each client
+     * counts, so it's safe to apply even if the client had seen some of them
+     *
+     * @param since   a version {@link #covers(long, long)} accepted
+     * @param exclude a client to leave out (the one asking)
+     * @return a delta RoomSnapshotPayload without the room name
+     */
+    public RoomSnapshotPayload changesSince(long since, long exclude) {
+        int first = count - (int) (version - since);
+        Map<Long, Integer> last = new HashMap<>();
+        for (int i = first; i < count; i++) {
+            last.put(ids[(head + i) % ids.length], i);
+        }
+        long[] added = new long[last.size()];
+        String[] addedNames = new String[last.size()];
+        long[] removed = new long[last.size()];
+        int adds = 0;
+        int removes = 0;
+        for (int i = first; i < count; i++) {
+            int slot = (head + i) % ids.length;
+            if (ids[slot] == exclude || last.get(ids[slot]) != i) {
+                continue;
+            }
+            if (joins[slot]) {
+                added[adds] = ids[slot];
+                addedNames[adds] = names[slot];
+                adds++;
+            } else {
+                removed[removes++] = ids[slot];
+            }
+        }
+        RoomSnapshotPayload delta = new RoomSnapshotPayload();
+        delta.setDelta(true);
+        delta.setClients(Arrays.copyOf(added, adds), Arrays.copyOf(addedNames, adds));
+        delta.setRemovedIds(Arrays.copyOf(removed, removes));
+        delta.setRoomEpoch(epoch);
+        delta.setRoomVersion(version);
+        return delta;
+    }
+
+    /**
+     * @return identifies this instance of the room
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the number of joins and leaves so far
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of changes kept
+     */
+    public int size() {
+        return count;
+    }
+
+    private void grow() {
+        int size = Math.min(capacity, Math.max(INITIAL_SIZE, ids.length * 2));
+        long[] newIds = new long[size];
+        String[] newNames = new String[size];
+        boolean[] newJoins = new boolean[size];
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % ids.length;
+            newIds[i] = ids[slot];
+            newNames[i] = names[slot];
+            newJoins[i] = joins[slot];
+        }
+        ids = newIds;
+        names = newNames;
+        joins = newJoins;
+        head = 0;
+    }
+}
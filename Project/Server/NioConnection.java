@@ -0,0 +1,229 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import Project.Common.EncodedPayload;
+import Project.Common.LoggerUtil;
+import Project.Common.Payload;
+import Project.Common.PayloadCodec;
+import Project.Common.PayloadFraming;
+
+/**
+ * Non-blocking Connection for a single client channel.
+ * <p>
+ * Reads are accumulated until a whole frame is available and then handed to
+ * the owning ServerThread. Writes from any thread go into a bounded
+ * OutboundQueue that the owning NioEventLoop drains, so the caller never
+ * blocks on the socket.
+ * </p>
+ * <p>
+ * The first byte the client sends is its codec choice from the hello, every
+ * byte after that is frames.
+ * </p>
+ */
+public class NioConnection implements Connection {
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final OutboundQueue outbound;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private final int codecBits;
+    private volatile PayloadCodec codec; // null until the client answers the hello
+    private ByteBuffer pending; // partially written frame, only touched by the loop
+    private SelectionKey key;
+    private BaseServerThread owner;
+
+    /**
+     * @param channel the accepted channel
+     * @param loop    the event loop that owns the channel
+     * @param config  codecs and outbound queue settings
+     */
+    protected NioConnection(SocketChannel channel, NioEventLoop loop, ServerConfig config) {
+        this.channel = channel;
+        this.loop = loop;
+        this.codecBits = config.getCodecBits();
+        this.outbound = config.newOutboundQueue();
+        // the hello lets the client know to speak frames instead of a raw object stream
+        pending = ByteBuffer.wrap(PayloadFraming.hello(codecBits));
+    }
+
+    @Override
+    public void bind(BaseServerThread owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Called by the loop once the channel is registered with its Selector
+     *
+     * @param key
+     */
+    protected void onRegistered(SelectionKey key) {
+        this.key = key;
+        flush();
+    }
+
+    @Override
+    public boolean send(EncodedPayload payload) {
+        PayloadCodec codec = this.codec;
+        if (closed.get()) {
+            return false;
+        }
+        if (codec == null) {
+            // nothing is sent before the client's CLIENT_CONNECT, which comes after the codec byte
+            LoggerUtil.INSTANCE.warning("Dropping payload sent before the codec was negotiated: %s", payload);
+            return true;
+        }
+        if (!outbound.offer(payload)) {
+            LoggerUtil.INSTANCE.warning("Client isn't keeping up (%s queued), disconnecting", outbound.size());
+            return false;
+        }
+        if (loop.inEventLoop()) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            channel.close(); // also cancels the key
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.info("Channel already closed");
+        }
+        outbound.clear();
+        if (owner != null) {
+            owner.onConnectionClosed();
+        }
+    }
+
+    /**
+     * Drains the read side of the channel and dispatches complete frames
+     */
+    protected void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.info("Read failed, client most likely disconnected");
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+        try {
+            if (codec == null && readBuffer.hasRemaining()) {
+                int choice = readBuffer.get() & 0xFF;
+                PayloadCodec chosen = PayloadFraming.forId(choice);
+                if (chosen == null || (codecBits & PayloadFraming.bitFor(chosen)) == 0) {
+                    throw new IOException("Client picked an unsupported codec: " + choice);
+                }
+                codec = chosen;
+                owner.info("Negotiated codec %s", codec.getName());
+            }
+            while (readBuffer.remaining() >= PayloadFraming.HEADER_SIZE && !closed.get()) {
+                int start = readBuffer.position();
+                int length = readBuffer.getInt(start);
+                PayloadFraming.checkLength(length);
+                if (readBuffer.remaining() < PayloadFraming.HEADER_SIZE + length) {
+                    ensureCapacity(PayloadFraming.HEADER_SIZE + length);
+                    break;
+                }
+                Payload payload = codec.decode(readBuffer.array(),
+                        readBuffer.arrayOffset() + start + PayloadFraming.HEADER_SIZE, length);
+                readBuffer.position(start + PayloadFraming.HEADER_SIZE + length);
+                owner.receive(payload);
+            }
+        } catch (IOException | ClassCastException e) {
+            LoggerUtil.INSTANCE.severe("Corrupt frame from client, closing connection", e);
+            close();
+            return;
+        }
+        readBuffer.compact();
+    }
+
+    /**
+     * Grows the (flipped) read buffer so a whole frame can fit
+     *
+     * @param frameSize
+     */
+    private void ensureCapacity(int frameSize) {
+        if (readBuffer.capacity() >= frameSize) {
+            return;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(frameSize);
+        bigger.put(readBuffer);
+        bigger.flip();
+        readBuffer = bigger;
+    }
+
+    protected void onWritable() {
+        flush();
+    }
+
+    /**
+     * Writes as much of the queue as the socket accepts, registering interest
+     * in OP_WRITE when the kernel buffer is full. Only runs on the loop thread.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (key == null || closed.get()) {
+            return; // not registered yet, onRegistered() will flush
+        }
+        try {
+            while (true) {
+                if (pending == null) {
+                    EncodedPayload next = outbound.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    try {
+                        // the frame may be shared with other recipients, only the buffer position is ours
+                        pending = ByteBuffer.wrap(next.frame(codec)).asReadOnlyBuffer();
+                    } catch (IOException e) {
+                        LoggerUtil.INSTANCE.severe("Failed to encode payload: " + next, e);
+                        continue; // the connection itself is still fine
+                    }
+                }
+                channel.write(pending);
+                if (pending.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pending = null;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.info("Write failed, client most likely disconnected");
+            close();
+        }
+    }
+
+    /**
+     * Gets this connection's outbound queue (depth and drop counts).
+     *
+     * @return the outbound queue
+     */
+    protected OutboundQueue getOutbound() {
+        return outbound;
+    }
+}
@@ -0,0 +1,128 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * A single Selector thread that services many NioConnections.
+ * All channel reads/writes for a connection happen on the loop that owns it.
+ */
+public class NioEventLoop implements Runnable {
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean isRunning = false;
+
+    protected NioEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    protected void start() {
+        isRunning = true;
+        thread.start();
+    }
+
+    protected void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    /**
+     * @return true if the calling thread is this loop's thread
+     */
+    protected boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs the task on the loop thread (on the next iteration)
+     *
+     * @param task
+     */
+    protected void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Hands a freshly accepted channel to this loop
+     *
+     * @param channel    non-blocking channel
+     * @param connection the connection that will handle its events
+     */
+    protected void register(SocketChannel channel, NioConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.onRegistered(key);
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.warning("Failed to register channel", e);
+                connection.close();
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        LoggerUtil.INSTANCE.info("%s started", thread.getName());
+        while (isRunning) {
+            try {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (CancelledKeyException e) {
+                        connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.severe("Selector failure in " + thread.getName(), e);
+            } catch (Exception e) {
+                // a misbehaving handler shouldn't take down every connection on this loop
+                LoggerUtil.INSTANCE.severe("Unhandled exception in " + thread.getName(), e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((NioConnection) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.info("Error closing selector", e);
+        }
+        LoggerUtil.INSTANCE.info("%s stopped", thread.getName());
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                LoggerUtil.INSTANCE.severe("Task failed in " + thread.getName(), e);
+            }
+        }
+    }
+}
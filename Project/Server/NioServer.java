@@ -0,0 +1,71 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Selector based alternative to the thread-per-client accept loop.
+ * <p>
+ * Accepted channels are spread round-robin across a fixed set of
+ * NioEventLoops, so the number of threads no longer grows with the number of
+ * connected clients.
+ * </p>
+ */
+public class NioServer {
+    private final NioEventLoop[] loops;
+    private final ServerConfig config;
+    private int nextLoop = 0;
+
+    /**
+     * @param config io thread count plus the settings each connection needs
+     * @throws IOException
+     */
+    protected NioServer(ServerConfig config) throws IOException {
+        this.config = config;
+        int ioThreads = config.getIoThreads();
+        loops = new NioEventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + i);
+        }
+    }
+
+    /**
+     * Accepts connections until the server socket fails or isRunning returns false
+     *
+     * @param port
+     * @param onClientInitialized callback passed to each ServerThread
+     * @param isRunning           checked between accepts
+     * @throws IOException
+     */
+    protected void start(int port, Consumer<ServerThread> onClientInitialized,
+            BooleanSupplier isRunning) throws IOException {
+        for (NioEventLoop loop : loops) {
+            loop.start();
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), Server.ACCEPT_BACKLOG);
+            // accepting stays blocking; only the per-client channels are multiplexed
+            while (isRunning.getAsBoolean()) {
+                SocketChannel channel = serverChannel.accept();
+                LoggerUtil.INSTANCE.info("Client connected");
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                NioEventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                NioConnection connection = new NioConnection(channel, loop, config);
+                new ServerThread(connection, onClientInitialized);
+                loop.register(channel, connection);
+            }
+        } finally {
+            for (NioEventLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
+}
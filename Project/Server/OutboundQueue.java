@@ -0,0 +1,203 @@
+package Project.Server;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+import Project.Common.EncodedPayload;
+import Project.Common.Payload;
+import Project.Common.PayloadType;
+
+/**
+ * Bounded queue of payloads waiting to be written to one client.
+ * <p>
+ * Senders (usually a Room broadcast) only enqueue; the connection's writer
+ * drains it. When the queue is full the configured {@link Policy} decides what
+ * gives. Only public chat is ever dropped; control payloads (joins, leaves,
+ * ids, private messages) are kept, and if they alone fill the queue the client
+ * is disconnected.
+ * </p>
+ */
+public class OutboundQueue {
+    /**
+     * What to do when a client falls behind far enough to fill its queue
+     */
+    public enum Policy {
+        DROP_OLDEST, // drop the oldest queued chat message
+        DISCONNECT, // close the connection
+        SUMMARY, // collapse every queued chat message into one "N messages skipped" notice
+    }
+
+    private final ArrayDeque<EncodedPayload> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int capacity;
+    private final Policy policy;
+    private long dropped = 0;
+    private EncodedPayload summary; // the queued "skipped" notice, if any
+    private int summaryCount = 0;
+
+    /**
+     * @param capacity max payloads waiting at once (minimum of 1)
+     * @param policy   what to do when full
+     */
+    public OutboundQueue(int capacity, Policy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * Adds the payload, applying the overflow policy if the queue is full
+     *
+     * @param payload
+     * @return false if the client can't keep up and should be disconnected
+     */
+    public boolean offer(EncodedPayload payload) {
+        lock.lock();
+        try {
+            if (queue.size() >= capacity && !makeRoom()) {
+                if (isChat(payload) && policy != Policy.DISCONNECT) {
+                    // nothing older to drop, so the new chat line is the one that goes
+                    drop(1);
+                    return true;
+                }
+                ServerMetrics.INSTANCE.onSlowConsumerDisconnect();
+                return false;
+            }
+            queue.add(payload);
+            ServerMetrics.INSTANCE.onEnqueued(queue.size());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the next payload to write or null if empty
+     */
+    public EncodedPayload poll() {
+        lock.lock();
+        try {
+            EncodedPayload next = queue.poll();
+            if (next != null) {
+                ServerMetrics.INSTANCE.onDequeued(1);
+                if (next == summary) {
+                    summary = null;
+                }
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Empties the queue, used when the connection closes
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            ServerMetrics.INSTANCE.onDequeued(queue.size());
+            queue.clear();
+            summary = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of payloads waiting.
+     *
+     * @return the queue depth
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of payloads this queue has dropped.
+     *
+     * @return the drop count
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees at least one slot according to the policy. Caller holds the lock.
+     *
+     * @return true if there's room now
+     */
+    private boolean makeRoom() {
+        switch (policy) {
+            case DROP_OLDEST:
+                Iterator<EncodedPayload> iter = queue.iterator();
+                while (iter.hasNext()) {
+                    if (isChat(iter.next())) {
+                        iter.remove();
+                        ServerMetrics.INSTANCE.onDequeued(1);
+                        drop(1);
+                        return true;
+                    }
+                }
+                return false;
+            case SUMMARY:
+                int skipped = 0;
+                int removed = 0;
+                iter = queue.iterator();
+                while (iter.hasNext()) {
+                    EncodedPayload next = iter.next();
+                    if (next == summary) {
+                        // fold the previous notice into the new one
+                        iter.remove();
+                        removed++;
+                        skipped += summaryCount;
+                    } else if (isChat(next)) {
+                        iter.remove();
+                        removed++;
+                        skipped++;
+                        drop(1);
+                    }
+                }
+                if (removed == 0) {
+                    return false;
+                }
+                ServerMetrics.INSTANCE.onDequeued(removed);
+                ServerMetrics.INSTANCE.onSummarized();
+                summaryCount = skipped;
+                summary = new EncodedPayload(summaryOf(skipped));
+                queue.add(summary);
+                ServerMetrics.INSTANCE.onEnqueued(queue.size());
+                return queue.size() < capacity;
+            default:
+                return false;
+        }
+    }
+
+    private void drop(int count) {
+        dropped += count;
+        ServerMetrics.INSTANCE.onDropped(count);
+    }
+
+    /**
+     * Public room chat is the only thing a policy is allowed to drop
+     */
+    private static boolean isChat(EncodedPayload payload) {
+        Payload p = payload.getPayload();
+        return p.getPayloadType() == PayloadType.MESSAGE && !p.isPrivate();
+    }
+
+    private static Payload summaryOf(int skipped) {
+        return ServerThread.buildMessage(ServerThread.DEFAULT_CLIENT_ID,
+                String.format("<i>%s messages skipped while your connection caught up</i>", skipped), false);
+    }
+}
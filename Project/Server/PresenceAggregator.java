@@ -0,0 +1,101 @@
+package Project.Server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import Project.Common.PresenceDeltaPayload;
+
+/**
+ * Collects a room's joins and leaves so they can go out as one
+ * {@link PresenceDeltaPayload} instead of a ROOM_JOIN per event per member.
+ * <p>
+ * A join and a leave of the same client inside one window cancel out, since
+ * the members never saw the first one. Not thread-safe, the owning Room
+ * only touches it from its mailbox; flushes are timed by one shared daemon
+ * thread that queues them there.
+ * </p>
+ */
+public class PresenceAggregator {
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "presence");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<Long, String> joins = new LinkedHashMap<>();
+    private final Map<Long, String> leaves = new LinkedHashMap<>();
+    private boolean isScheduled = false;
+
+    /**
+     * @param clientId
+     * @param clientName
+     */
+    public void join(long clientId, String clientName) {
+        if (leaves.remove(clientId) == null) {
+            joins.put(clientId, clientName);
+        }
+    }
+
+    /**
+     * @param clientId
+     * @param clientName
+     */
+    public void leave(long clientId, String clientName) {
+        if (joins.remove(clientId) == null) {
+            leaves.put(clientId, clientName);
+        }
+    }
+
+    /**
+     * Drops a pending join, for a client that disconnected before it went out
+     *
+     * @param clientId
+     */
+    public void forget(long clientId) {
+        joins.remove(clientId);
+    }
+
+    /**
+     * @return true if nothing is waiting to be sent
+     */
+    public boolean isEmpty() {
+        return joins.isEmpty() && leaves.isEmpty();
+    }
+
+    /**
+     * Runs the flush once the window closes, unless one is already pending
+     *
+     * @param flush        sends the delta, called on the timer thread
+     * @param windowMillis how long to collect events
+     */
+    public void schedule(Runnable flush, long windowMillis) {
+        if (isScheduled) {
+            return;
+        }
+        isScheduled = true;
+        TIMER.schedule(flush, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes everything collected so far
+     *
+     * @param room the room's name
+     * @return the delta, or null if nothing changed
+     */
+    public PresenceDeltaPayload drain(String room) {
+        isScheduled = false;
+        if (isEmpty()) {
+            return null;
+        }
+        PresenceDeltaPayload delta = new PresenceDeltaPayload();
+        delta.setMessage(room);
+        joins.forEach(delta::addJoin);
+        leaves.forEach(delta::addLeave);
+        joins.clear();
+        leaves.clear();
+        return delta;
+    }
+}
@@ -1,6 +1,14 @@
 package Project.Server;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.logging.Level;
+
 import Project.Common.FlipPayload;
 import Project.Common.RollPayload;
 import java.io.BufferedReader;
@@ -9,11 +17,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import Project.Common.EncodedPayload;
 import Project.Common.LoggerUtil;
 import Project.Common.Payload;
+import Project.Common.PresenceDeltaPayload;
+import Project.Common.ReconnectPayload;
+import Project.Common.RoomSnapshotPayload;
+import Project.Common.TextFormatter;
 
 
 
@@ -21,23 +34,66 @@ import Project.Common.Payload;
 public class Room implements AutoCloseable{
     private String name;// unique name of the Room
     protected volatile boolean isRunning = false;
-    private ConcurrentHashMap<Long, ServerThread> clientsInRoom = new ConcurrentHashMap<Long, ServerThread>();
+    private HashMap<Long, ServerThread> clientsInRoom = new HashMap<Long, ServerThread>();
+    // every change to the room runs through here one at a time, so the state
+    // below has a single writer and needs no lock; connection threads submit
+    // a command and go back to reading
+    private final RoomMailbox mailbox;
+    // recent messages replayed to joiners
+    private RoomHistory history = new RoomHistory(ServerConfig.DEFAULT_HISTORY_MESSAGES,
+            ServerConfig.DEFAULT_HISTORY_BYTES);
+    // joins/leaves waiting to go out as one delta
+    private final PresenceAggregator presence = new PresenceAggregator();
+    // members above which broadcasts are sent in parallel slices, 0 never
+    private int fanoutThreshold = ServerConfig.DEFAULT_FANOUT_THRESHOLD;
+    // messages from clients whose join is still on its way from their old room
+    private final HashMap<Long, List<Runnable>> waitingForJoin = new HashMap<>();
+    // members as an array to slice, null after a join or leave until needed
+    private ServerThread[] memberArray;
+    // state in the high half, references (members plus joins still queued) in
+    // the low half; one word, so a join and a close can't both win
+    private final AtomicLong lifecycle = new AtomicLong(pack(State.CREATING, 0));
+    private int presenceThreshold = ServerConfig.DEFAULT_PRESENCE_THRESHOLD;
+    private long presenceWindowMillis = ServerConfig.DEFAULT_PRESENCE_WINDOW_MILLIS;
+    // versioned joins/leaves for resyncing reconnecting clients
+    private MembershipJournal membership = new MembershipJournal(ServerConfig.DEFAULT_MEMBERSHIP_JOURNAL);
 
     private String targetUsername;
 
+    /**
+     * Where a room is in its life. Only OPEN rooms take joins; a room drains
+     * once its last reference is released, and never reopens (a new Room
+     * with the same name is created instead).
+     */
+    public enum State {
+        CREATING, // in the server's map, still being configured
+        OPEN, // taking joins
+        DRAINING, // empty and closing
+        CLOSED,
+    }
+
     public final static String LOBBY = "lobby";
+    private final static Pattern LOBBY_SHARD = Pattern.compile(LOBBY + "(-\\d+)?", Pattern.CASE_INSENSITIVE);
+    private final static int SEARCH_LIMIT = 50; // newest matches returned by /search
+    private final static int SNAPSHOT_CHUNK = 1000; // most members per RoomSnapshotPayload
+    private final static int MAX_WAITING_FOR_JOIN = 32; // messages held per joiner, later ones are dropped
 
     private void info(String message) {
-        LoggerUtil.INSTANCE.info(String.format("Room[%s]: %s", name, message));
+        LoggerUtil.INSTANCE.info("Room[%s]: %s", name, message);
+    }
+
+    /**
+     * Only formats the message when INFO is enabled
+     */
+    private void info(String format, Object... args) {
+        if (LoggerUtil.INSTANCE.isLoggable(Level.INFO)) {
+            info(String.format(format, args));
+        }
     }
-    //arc73 7/22/24
-    private static final String BOLD_REGEX = "\\*([^*]+)\\*";
-    private static final String ITALICS_REGEX = "-([^\\-]+)-";
-    private static final String UNDERLINE_REGEX = "_([^_]+)_";
-    private static final String COLOR_REGEX = "\\[([rgbsilver]*)\\s([a-zA-Z]+)\\s([rgbsilver]*)\\]";
 
     public Room(String name) {
         this.name = name;
+        this.mailbox = new RoomMailbox(name);
         isRunning = true;
         info("created");
     }
@@ -46,204 +102,277 @@ public class Room implements AutoCloseable{
         return this.name;
     }
 
-    
-    //arc73 7/22/24
-    private String processTextEffects(String message) { 
-        message = message.replaceAll("#r(.+?)r#", "<span style='color:red;'>$1</span>"); // #r[text]r# for red text
-        message = message.replaceAll("#g(.+?)g#", "<span style='color:green;'>$1</span>"); // #g[text]g# for green text
-        message = message.replaceAll("#b(.+?)b#", "<span style='color:blue;'>$1</span>"); // #b[text]b# for blue text       
-        message = message.replaceAll("\\*\\*(.+?)\\*\\*", "<b>$1</b>"); // Double asterisk for bold text
-        message = message.replaceAll("\\*(.+?)\\*", "<i>$1</i>"); // Single asterisk for italic text
-        message = message.replaceAll("_(.+?)_", "<u>$1</u>"); // Underscore for underlined text                      
-        return message; // returns processed message
+    /**
+     * @param name
+     * @return true for the lobby and its shards (lobby-2, lobby-3, ...)
+     */
+    public static boolean isLobby(String name) {
+        return name != null && LOBBY_SHARD.matcher(name).matches();
     }
 
-    private String processBold(String message) {
-        System.out.println("Source Message (Bold): " + message);
-       
-        Pattern pattern = Pattern.compile(BOLD_REGEX);
-        Matcher matcher = pattern.matcher(message);
-
-        while (matcher.find()) {
-            String boldText = "<b>" + matcher.group(1) + "</b>";
-            message = message.replace(matcher.group(0), boldText);
-        }
-
-
-
+    /**
+     * @return members, counting joins that haven't been handled yet
+     */
+    protected int getOccupancy() {
+        return (int) lifecycle.get();
+    }
 
-        // Print the formatted message for debugging
-        System.out.println("Formatted Message (Bold): " + message);
-        return message;
+    public State getState() {
+        return State.values()[(int) (lifecycle.get() >>> 32)];
     }
 
-    private String processItalics(String message) { 
-        // Print the original message for debugging
-        System.out.println("Source Message (Italics): " + message);
-        // Define the regular expression pattern for detecting italics formatting
-        Pattern pattern = Pattern.compile(ITALICS_REGEX);
-        // Create a matcher object to find matches in the message
-        Matcher matcher = pattern.matcher(message);
+    private static long pack(State state, int references) {
+        return ((long) state.ordinal() << 32) | references;
+    }
 
+    /**
+     * Lets the room take joins once the Server finished setting it up
+     */
+    protected void open() {
+        lifecycle.compareAndSet(pack(State.CREATING, 0), pack(State.OPEN, 0));
+    }
 
-        // Iterate through all matches in the message
-        while (matcher.find()) {
-            // Create italics-formatted text using the matched content
-            String italicText = "<i>" + matcher.group(1) + "</i>";
-            // Replace the original matched content with the formatted text
-            message = message.replace(matcher.group(0), italicText);
+    /**
+     * Reserves a place for a joiner; the reference is held until they leave.
+     * Fails once the room started draining, the caller should look the room
+     * up again.
+     * 
+     * @return true if the room is open and the place is reserved
+     */
+    protected boolean tryAcquire() {
+        while (true) {
+            long current = lifecycle.get();
+            if (current >>> 32 != State.OPEN.ordinal()) {
+                return false;
+            }
+            if (lifecycle.compareAndSet(current, current + 1)) {
+                return true;
+            }
         }
-        // Print the formatted message for debugging
-        System.out.println("Formatted Message (Italics): " + message);
-        return message;
-    } 
-
-
-    private String processUnderline(String message) { 
-        System.out.println("Source Message (Underline): " + message);
-        Pattern pattern = Pattern.compile(UNDERLINE_REGEX);
-        Matcher matcher = pattern.matcher(message);
-
+    }
 
-        while (matcher.find()) {
-            String underlineText = "<u>" + matcher.group(1) + "</u>";
-            message = message.replace(matcher.group(0), underlineText);
+    /**
+     * Drops a reference; the last one out starts closing the room (the lobby
+     * and its shards stay open, the Server may be sending someone their way)
+     */
+    private void release() {
+        long current = lifecycle.decrementAndGet();
+        if ((int) current == 0 && !isLobby(name)
+                && lifecycle.compareAndSet(pack(State.OPEN, 0), pack(State.DRAINING, 0))) {
+            close();
         }
-
-
-        System.out.println("Formatted Message (Underline): " + message);
-        return message;
     }
 
+    /**
+     * Sets how much of the conversation this room keeps for joiners (what's
+     * already kept is dropped)
+     * 
+     * @param maxMessages most messages to keep, 0 turns history off
+     * @param maxBytes    approximate memory budget
+     */
+    protected void setHistoryLimits(int maxMessages, long maxBytes) {
+        mailbox.execute(() -> history = new RoomHistory(maxMessages, maxBytes));
+    }
 
-    private String processColor(String message) { 
-        System.out.println("Source Message (Color): " + message);
-        Pattern pattern = Pattern.compile(COLOR_REGEX);
-        Matcher matcher = pattern.matcher(message);
-
-        while (matcher.find()) {
-            String colorText = "<font.color=" + matcher.group(2) + ">" + matcher.group(3) + "</font>";
-            message = message.replace(matcher.group(0), colorText);
-        }
-        
-
-        message = message.replace("[r", "<font color=red>").replace("r]","</font>");
-        message = message.replace("[g", "<font color=green>").replace("g]","</font>");
-        message = message.replace("[b", "<font color=blue>").replace("b]","</font>");        
-           
-        System.out.println("Formatted Message (Color): " + message);
-        return message;
-    } 
+    /**
+     * Sets how many joins and leaves are kept for reconnecting clients (the
+     * journal starts over)
+     * 
+     * @param capacity most changes to keep, 0 always sends full snapshots
+     */
+    protected void setMembershipJournal(int capacity) {
+        mailbox.execute(() -> membership = new MembershipJournal(capacity));
+    }
 
-    private String formatMessage(String message) { 
-        System.out.println("Source Message: " + message);
-        message = processBold(message);
-        message = processItalics(message);
-        message = processUnderline(message);
-        message = processColor(message);
+    /**
+     * Sets when joins and leaves are batched instead of sent one by one
+     * 
+     * @param threshold    rooms with more members than this batch
+     * @param windowMillis how long a batch collects events
+     */
+    protected void setPresenceBatching(int threshold, long windowMillis) {
+        mailbox.execute(() -> {
+            presenceThreshold = threshold;
+            presenceWindowMillis = windowMillis;
+        });
+    }
 
-       
-        System.out.println("Formatted Message: " + message);
-        return message;
+    /**
+     * Sets the room size above which broadcasts are split into slices sent
+     * in parallel
+     * 
+     * @param threshold member count, 0 always sends from the room's worker
+     */
+    protected void setFanoutThreshold(int threshold) {
+        mailbox.execute(() -> fanoutThreshold = threshold);
+    }
 
+    /**
+     * Frees the history buffer if nobody has said anything for a while
+     * 
+     * @param idleMillis
+     */
+    protected void evictIdleHistory(long idleMillis) {
+        mailbox.execute(() -> history.evictIfIdle(idleMillis));
     }
 
-    public void processTextFormatting(ServerThread sender, String message) {
-        String formattedMessage = formatMessage(message);
-        sendMessage(sender, formattedMessage);
+    //arc73 7/22/24
+    // #r text r# red, #g text g# green, #b text b# blue, **bold**, *italic*, _underline_
+    private String processTextEffects(String message) {
+        return TextFormatter.format(message); // returns processed message
     }
 
-   
+    /**
+     * Queues a join; the Server already pointed the client at this room and,
+     * when the client is switching rooms, only calls this once the old room
+     * has handled the leave (see {@link #removedClient(ServerThread, Runnable)})
+     * 
+     * @param client
+     */
+    protected void addClient(ServerThread client) {
+        // the Server already holds a reference for them (see tryAcquire())
+        mailbox.execute(() -> onAddClient(client));
+    }
 
-    protected synchronized void addClient(ServerThread client) {
+    private void onAddClient(ServerThread client) {
         if (!isRunning) { // block action if Room isn't running
             return;
         }
+        if (client.getCurrentRoom() != this || !client.isRunning()) {
+            // moved on (or disconnected) while the old room was handling the leave;
+            // a dead connection added here would never be evicted
+            info("%s[%s] is no longer headed here", client.getClientName(), client.getClientId());
+            waitingForJoin.remove(client.getClientId());
+            release();
+            return;
+        }
         if (clientsInRoom.containsKey(client.getClientId())) {
             info("Attempting to add a client that already exists in the room");
+            release();
             return;
         }
         clientsInRoom.put(client.getClientId(), client);
-        client.setCurrentRoom(this);
+        memberArray = null;
+        membership.record(client.getClientId(), client.getClientName(), true);
         loadMuteList(client);
 
         // notify clients of someone joining
-        sendRoomStatus(client.getClientId(), client.getClientName(), true);
+        announcePresence(client, true);
         // sync room state to joiner
         syncRoomList(client);
+        // then catch them up on the conversation
+        sendHistory(client);
+
+        info("%s[%s] joined the Room[%s]", client.getClientName(), client.getClientId(), getName());
 
-        info(String.format("%s[%s] joined the Room[%s]", client.getClientName(), client.getClientId(), getName()));
+        List<Runnable> waiting = waitingForJoin.remove(client.getClientId());
+        if (waiting != null) {
+            waiting.forEach(Runnable::run);
+        }
+    }
 
+    /**
+     * Queues a leave
+     * 
+     * @param client
+     * @param then   runs on this room's mailbox right after the leave was
+     *               sent out (the Server queues the join to the next room
+     *               here, so the client never sees its own leave from this
+     *               room after the next room's join and roster)
+     */
+    protected void removedClient(ServerThread client, Runnable then) {
+        mailbox.execute(() -> {
+            try {
+                onRemovedClient(client);
+            } finally {
+                then.run();
+            }
+        });
     }
 
-    protected synchronized void removedClient(ServerThread client) {
+    private void onRemovedClient(ServerThread client) {
         if (!isRunning) { // block action if Room isn't running
             return;
         }
-        // notify remaining clients of someone leaving
-        // happen before removal so leaving client gets the data
-        sendRoomStatus(client.getClientId(), client.getClientName(), false);
-        clientsInRoom.remove(client.getClientId());
-        LoggerUtil.INSTANCE.fine("Clients remaining in Room: " + clientsInRoom.size());
-
-        info(String.format("%s[%s] left the room", client.getClientName(), client.getClientId(), getName()));
+        boolean wasMember = clientsInRoom.containsKey(client.getClientId());
+        if (wasMember) {
+            // notify remaining clients of someone leaving
+            // happen before removal so leaving client gets the data
+            announcePresence(client, false);
+            clientsInRoom.remove(client.getClientId());
+            memberArray = null;
+            membership.record(client.getClientId(), client.getClientName(), false);
+        }
+        LoggerUtil.INSTANCE.fine("Clients remaining in Room: %s", clientsInRoom.size());
 
-        autoCleanup();
+        info("%s[%s] left the room", client.getClientName(), client.getClientId());
 
+        if (wasMember) {
+            release();
+        }
     }
 
     /**
      * Takes a ServerThread and removes them from the Server
-     * Adding the synchronized keyword ensures that only one thread can execute
-     * these methods at a time,
-     * preventing concurrent modification issues and ensuring thread safety
+     * Queued on the room's mailbox like every other change, so it never runs
+     * in the middle of a broadcast (a failed send queues one of these rather
+     * than disconnecting on the spot)
      * 
      * @param client
      */
-    protected synchronized void disconnect(ServerThread client) {
-        if (!isRunning) { // block action if Room isn't running
+    protected void disconnect(ServerThread client) {
+        mailbox.execute(() -> onDisconnect(client));
+    }
+
+    private void onDisconnect(ServerThread client) {
+        long id = client.getClientId();
+        // already handled (several failed sends can each queue a disconnect)
+        if (!isRunning || !clientsInRoom.containsKey(id)) {
             return;
         }
-        long id = client.getClientId();
+        waitingForJoin.remove(id);
+        presence.forget(id); // members that never heard of the join don't need it anymore
         sendDisconnect(client);
         client.disconnect();
         saveMuteList(client);
         // removedClient(client); // <-- use this just for normal room leaving
-        clientsInRoom.remove(client.getClientId());
-        LoggerUtil.INSTANCE.fine("Clients remaining in Room: " + clientsInRoom.size());
-        
+        clientsInRoom.remove(id);
+        memberArray = null;
+        membership.record(id, client.getClientName(), false);
+        LoggerUtil.INSTANCE.fine("Clients remaining in Room: %s", clientsInRoom.size());
+    
         // Improved logging with user data
-        info(String.format("%s[%s] disconnected", client.getClientName(), id));
-        autoCleanup();
+        info("%s[%s] disconnected", client.getClientName(), id);
+        release();
     }
 
-    protected synchronized void disconnectAll() {
-        info("Disconnect All triggered");
-        if (!isRunning) {
-            return;
-        }
-        clientsInRoom.values().removeIf(client -> {
-            disconnect(client);
-            return true;
+    /**
+     * Disconnects everyone, used when the server shuts down
+     * 
+     * @return completes once the room got to it
+     */
+    protected CompletableFuture<Void> disconnectAll() {
+        return mailbox.submit(() -> {
+            info("Disconnect All triggered");
+            if (!isRunning) {
+                return;
+            }
+            for (ServerThread client : List.copyOf(clientsInRoom.values())) {
+                onDisconnect(client);
+            }
+            info("Disconnect All finished");
         });
-        info("Disconnect All finished");
-        autoCleanup();
     }
 
     /**
-     * Attempts to close the room to free up resources if it's empty
+     * Frees the room's resources; runs on the mailbox once the room drained
+     * (see release()), so no join can be on its way in
      */
-    private void autoCleanup() {
-        if (!Room.LOBBY.equalsIgnoreCase(name) && clientsInRoom.isEmpty()) {
-            close();
-        }
-    }
-
     public void close() {
         // attempt to gracefully close and migrate clients
         if (!clientsInRoom.isEmpty()) {
-            sendMessage(null, "Room is shutting down, migrating to lobby");
-            info(String.format("migrating %s clients", name, clientsInRoom.size()));
+            onSendMessage(null, "Room is shutting down, migrating to lobby", false);
+            info("migrating %s clients", clientsInRoom.size());
             clientsInRoom.values().removeIf(client -> {
                 Server.INSTANCE.joinRoom(Room.LOBBY, client);
                 return true;
@@ -252,7 +381,11 @@ public class Room implements AutoCloseable{
         Server.INSTANCE.removeRoom(this);
         isRunning = false;
         clientsInRoom.clear();
-        info(String.format("closed", name));
+        waitingForJoin.clear();
+        memberArray = null;
+        lifecycle.set(pack(State.CLOSED, 0));
+        mailbox.close();
+        info("closed");
     }
 
     public void setTargetUsername(String targetUsername) {
@@ -271,30 +404,113 @@ public class Room implements AutoCloseable{
      * Sends to all clients details of a disconnect client
      * @param client
      */
-    protected synchronized void sendDisconnect(ServerThread client) {
-        info(String.format("sending disconnect status to %s recipients", clientsInRoom.size()));
-        clientsInRoom.values().removeIf(clientInRoom -> {
-            boolean failedToSend = !clientInRoom.sendDisconnect(client.getClientId(), client.getClientName());
-            if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
+    protected void sendDisconnect(ServerThread client) {
+        info("sending disconnect status to %s recipients", clientsInRoom.size());
+        // encoded once and shared by every recipient
+        EncodedPayload frame = new EncodedPayload(
+                ServerThread.buildDisconnect(client.getClientId(), client.getClientName()));
+        broadcast(frame, client);
+    }
+
+    private void broadcast(EncodedPayload frame, ServerThread leaving) {
+        broadcast(frame, leaving, null);
+    }
+
+    /**
+     * Sends one frame to every member. Anyone whose send fails gets a
+     * disconnect queued behind the current command instead of being dropped
+     * mid-loop, so a broadcast never re-enters another broadcast.
+     * Rooms above the fan-out threshold are sent to in parallel slices (see
+     * {@link RoomFanout}), still finishing before the next command runs.
+     * 
+     * @param frame
+     * @param leaving a member already on its way out (its connection may be
+     *                gone), or null
+     * @param skip    members that shouldn't get it, or null
+     */
+    private void broadcast(EncodedPayload frame, ServerThread leaving, Predicate<ServerThread> skip) {
+        List<ServerThread> failed;
+        if (fanoutThreshold > 0 && clientsInRoom.size() > fanoutThreshold) {
+            if (memberArray == null) {
+                memberArray = clientsInRoom.values().toArray(new ServerThread[0]);
+            }
+            failed = RoomFanout.send(memberArray, frame, skip);
+        } else {
+            failed = new ArrayList<>();
+            for (ServerThread client : clientsInRoom.values()) {
+                if ((skip == null || !skip.test(client)) && !client.send(frame)) {
+                    failed.add(client);
+                }
+            }
+        }
+        for (ServerThread client : failed) {
+            if (client != leaving) {
+                info("Removing disconnected client[%s] from list", client.getClientId());
                 disconnect(client);
             }
-            return failedToSend;
-        });
+        }
     }
 
     /**
-     * Syncs info of existing users in room with the client
+     * Syncs info of existing users in room with the client, in chunks of up
+     * to {@link #SNAPSHOT_CHUNK} members rather than one payload per member.
+     * A reconnecting client whose version is still in the journal only gets
+     * the joins and leaves since then. At least one payload is always sent
+     * so the client learns the room's membership version.
      * 
      * @param client
      */
-    protected synchronized void syncRoomList(ServerThread client) {
-
-        clientsInRoom.values().forEach(clientInRoom -> {
-            if (clientInRoom.getClientId() != client.getClientId()) {
-                client.sendClientSync(clientInRoom.getClientId(), clientInRoom.getClientName());
+    protected void syncRoomList(ServerThread client) {
+        ReconnectPayload resume = client.takeResume();
+        if (resume != null && getName().equalsIgnoreCase(resume.getMessage())
+                && membership.covers(resume.getRoomEpoch(), resume.getRoomVersion())) {
+            RoomSnapshotPayload delta = membership.changesSince(resume.getRoomVersion(), client.getClientId());
+            delta.setMessage(getName());
+            info("resyncing %s[%s] from version %s (+%s -%s)", client.getClientName(), client.getClientId(),
+                    resume.getRoomVersion(), delta.size(), delta.getRemovedCount());
+            client.sendRoomSnapshot(delta);
+            return;
+        }
+        long[] ids = new long[Math.min(clientsInRoom.size(), SNAPSHOT_CHUNK)];
+        String[] names = new String[ids.length];
+        int filled = 0;
+        for (ServerThread clientInRoom : clientsInRoom.values()) {
+            if (clientInRoom.getClientId() == client.getClientId()) {
+                continue;
             }
-        });
+            if (filled == ids.length) {
+                client.sendRoomSnapshot(snapshotChunk(ids, names));
+                ids = new long[ids.length];
+                names = new String[ids.length];
+                filled = 0;
+            }
+            ids[filled] = clientInRoom.getClientId();
+            names[filled] = clientInRoom.getClientName();
+            filled++;
+        }
+        client.sendRoomSnapshot(snapshotChunk(Arrays.copyOf(ids, filled), Arrays.copyOf(names, filled)));
+    }
+
+    private RoomSnapshotPayload snapshotChunk(long[] ids, String[] names) {
+        RoomSnapshotPayload snapshot = new RoomSnapshotPayload();
+        snapshot.setMessage(getName());
+        snapshot.setClients(ids, names);
+        snapshot.setRoomEpoch(membership.getEpoch());
+        snapshot.setRoomVersion(membership.getVersion());
+        return snapshot;
+    }
+
+    /**
+     * Replays recent messages to a joiner in a single frame, leaving out
+     * anyone they muted
+     * 
+     * @param client
+     */
+    protected void sendHistory(ServerThread client) {
+        EncodedPayload frame = history.replayFor(client.getMuteList());
+        if (frame != null) {
+            client.send(frame);
+        }
     }
 
     /**
@@ -304,16 +520,50 @@ public class Room implements AutoCloseable{
      * @param clientName
      * @param isConnect
      */
-    protected synchronized void sendRoomStatus(long clientId, String clientName, boolean isConnect) {
-        info(String.format("sending room status to %s recipients", clientsInRoom.size()));
-        clientsInRoom.values().removeIf(client -> {
-            boolean failedToSend = !client.sendRoomAction(clientId, clientName, getName(), isConnect);
-            if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
-                disconnect(client);
-            }
-            return failedToSend;
-        });
+    protected void sendRoomStatus(long clientId, String clientName, boolean isConnect) {
+        info("sending room status to %s recipients", clientsInRoom.size());
+        EncodedPayload frame = new EncodedPayload(
+                ServerThread.buildRoomAction(clientId, clientName, getName(), isConnect));
+        broadcast(frame, null);
+    }
+
+    /**
+     * Tells the room someone joined or left. Small rooms hear about it right
+     * away; busy ones (or ones with a delta already pending, to keep the
+     * order) get it in the next presence delta. The client itself always
+     * hears right away since its room switch depends on it.
+     * 
+     * @param client
+     * @param isJoin
+     */
+    private void announcePresence(ServerThread client, boolean isJoin) {
+        if (clientsInRoom.size() <= presenceThreshold && presence.isEmpty()) {
+            sendRoomStatus(client.getClientId(), client.getClientName(), isJoin);
+            return;
+        }
+        if (isJoin) {
+            presence.join(client.getClientId(), client.getClientName());
+        } else {
+            presence.leave(client.getClientId(), client.getClientName());
+        }
+        client.sendRoomAction(client.getClientId(), client.getClientName(), getName(), isJoin);
+        presence.schedule(() -> mailbox.execute(this::flushPresence), presenceWindowMillis);
+    }
+
+    /**
+     * Sends the joins and leaves collected so far to every member as one
+     * delta. Runs when the window closes, or early when something is about to
+     * be said so nobody sees a message from a sender they don't know yet.
+     */
+    protected void flushPresence() {
+        PresenceDeltaPayload delta = presence.drain(getName());
+        if (delta == null || !isRunning) {
+            return;
+        }
+        delta.setRoomVersion(membership.getVersion());
+        info("sending presence delta (+%s -%s) to %s recipients", delta.getJoinCount(), delta.getLeaveCount(),
+                clientsInRoom.size());
+        broadcast(new EncodedPayload(delta), null);
     }
 
     /**
@@ -321,91 +571,106 @@ public class Room implements AutoCloseable{
      * Internally calls processCommand and evaluates as necessary.
      * Note: Clients that fail to receive a message get removed from
      * connectedClients.
-     * Adding the synchronized keyword ensures that only one thread can execute
-     * these methods at a time,
-     * preventing concurrent modification issues and ensuring thread safety
+     * The payload is built and encoded once; every recipient that isn't
+     * muting the sender gets the same frame.
+     * The work is queued on the room's mailbox, so the caller never waits on
+     * other senders
      * 
      * @param message
      * @param sender  ServerThread (client) sending the message or null if it's a
      *                server-generated message
      */
     
-    protected synchronized void sendMessage(ServerThread sender, String message) {
+    protected void sendMessage(ServerThread sender, String message) {
         sendMessage(sender, message, false);
     }
-    protected synchronized void sendMessage(ServerThread sender, String message, boolean isPrivate) {
-        
+    protected void sendMessage(ServerThread sender, String message, boolean isPrivate) {
+        mailbox.execute(() -> onSendMessage(sender, message, isPrivate));
+    }
+
+    private void onSendMessage(ServerThread sender, String message, boolean isPrivate) {
         if (!isRunning) { // block action if Room isn't running
             return;
         }
+        if (sender != null && !clientsInRoom.containsKey(sender.getClientId())) {
+            // sent while the old room was still handling their leave, so the join
+            // isn't in yet; it goes out right after the join instead
+            if (sender.getCurrentRoom() == this) {
+                List<Runnable> waiting = waitingForJoin.computeIfAbsent(sender.getClientId(),
+                        id -> new ArrayList<>());
+                if (waiting.size() < MAX_WAITING_FOR_JOIN) {
+                    waiting.add(() -> onSendMessage(sender, message, isPrivate));
+                }
+            }
+            return;
+        }
 
+        if (!presence.isEmpty()) {
+            flushPresence();
+        }
         // Note: any desired changes to the message must be done before this section
         long senderId = sender == null ? ServerThread.DEFAULT_CLIENT_ID : sender.getClientId();
-        
-        final String[] messageToSend = { processTextEffects(message) };
-        // loop over clients and send out the message; remove client if message failed
-        // to be sent
-        // Note: this uses a lambda expression for each item in the values() collection,
-        // it's one way we can safely remove items during iteration
-        info(String.format("sending message to %s recipients: %s", getName(), clientsInRoom.size(), messageToSend[0]));
-        clientsInRoom.values().removeIf(client -> {
-            if (client.isMuted(sender.getClientName())) {
-                info(String.format("Message from %s to %s was skipped due to mute.", sender.getClientName(), client.getClientName()));
-                return false;
+    
+        String messageToSend = processTextEffects(message);
+        EncodedPayload frame = new EncodedPayload(ServerThread.buildMessage(senderId, messageToSend, isPrivate));
+        String senderName = sender == null ? null : sender.getClientName();
+        if (!isPrivate) {
+            history.append(senderId, senderName, messageToSend);
+            ChatLog chatLog = Server.INSTANCE.getChatLog();
+            if (chatLog != null) {
+                chatLog.append(name, senderId, messageToSend);
             }
-
-
-
-            boolean failedToSend = !client.sendMessage(senderId, messageToSend[0], isPrivate);
-            if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
-                disconnect(client);
         }
-        return failedToSend;
-        
-    });
+        // loop over clients and send out the message; a client the message failed
+        // to reach gets a disconnect queued behind this message
+        info("sending message to %s recipients: %s", clientsInRoom.size(), messageToSend);
+        broadcast(frame, null, senderName == null ? null : client -> {
+            if (client.isMuted(senderName)) {
+                info("Message from %s to %s was skipped due to mute.", senderName, client.getClientName());
+                return true;
+            }
+            return false;
+        });
     }
 
     // end send data to client(s)
-    //arc73 7/22/24
-    public void handlePrivateMessage(ServerThread sender, Payload payload) {
-        String targetUsername = payload.getTargetUsername();
-        String message = payload.getMessage();
-
-        String formattedMessage = processTextEffects(message);               
 
-        ServerThread targetClient = clientsInRoom.values().stream()
-            .filter(client -> client.getClientName().equalsIgnoreCase(targetUsername))
-            .findFirst()
-            .orElse(null);
-
-        if (targetClient != null) {
-            String privateMessage = String.format("[Private message from %s]: %s", sender.getClientName(), formattedMessage);
-            targetClient.sendMessage(sender.getClientId(), privateMessage, true);
-            sender.sendMessage(sender.getClientId(), privateMessage, true);
-        } else {
-            sender.sendMessage(sender.getClientId(), String.format("User %s not found.", targetUsername), true);
-        }
+    /**
+     * Looks the name up in the server's client registry (case-insensitive)
+     * 
+     * @param clientName
+     * @return the client if they're in this room, otherwise null
+     */
+    private ServerThread findClientInRoom(String clientName) {
+        return Server.INSTANCE.getClients().findByName(clientName,
+                client -> clientsInRoom.get(client.getClientId()) == client);
     }
 
-    
     //arc73 7/22/24
     //Handle Flip Method 
-    protected synchronized void handleFlip(ServerThread sender, FlipPayload flipPayload) {
+    protected void handleFlip(ServerThread sender, FlipPayload flipPayload) {
+        mailbox.execute(() -> onFlip(sender, flipPayload));
+    }
+
+    private void onFlip(ServerThread sender, FlipPayload flipPayload) {
         Random random = new Random();
         boolean result = random.nextBoolean();
         // Determines result of flip, either heads or tails
         // Writes a message to the console which displays the result of the flip
         String message = String.format("%s flipped a coin and got %s", sender.getClientName(), result ? "heads" : "tails");
         // Message sent to clients connected to room - Formatted in bold
-        sendMessage(sender, "<b>" + message + "</b>");
+        onSendMessage(sender, "<b>" + message + "</b>", false);
     }
     
 
     
     //arc73 7/22/24
     //Handle Roll Method
-    protected synchronized void handleRoll(ServerThread sender, RollPayload rollPayload) {
+    protected void handleRoll(ServerThread sender, RollPayload rollPayload) {
+        mailbox.execute(() -> onRoll(sender, rollPayload));
+    }
+
+    private void onRoll(ServerThread sender, RollPayload rollPayload) {
         // Gets number of dice from payload
         int diceNumber = rollPayload.getDiceNumber();
         // Gets number of sides of each die from payload
@@ -419,14 +684,19 @@ public class Room implements AutoCloseable{
             resultMessage.append(random.nextInt(sidesNumber) + 1).append(" ");
         }
         // Total is added to the message which is written to the console - Text formatted bold
-        sendMessage(sender, "<b>" + resultMessage.toString().trim() + "</b>");
+        onSendMessage(sender, "<b>" + resultMessage.toString().trim() + "</b>", false);
     }
 
     // receive data from ServerThread
     
     protected void handleCreateRoom(ServerThread sender, String room) {
-        if (Server.INSTANCE.createRoom(room)) {
-            Server.INSTANCE.joinRoom(room, sender);
+        if (isLobby(room)) {
+            sender.sendMessage(String.format("Room %s is reserved for the lobby", room));
+        } else if (Server.INSTANCE.createRoom(room)) {
+            // if others came and went before we got in it's closing already, make it again
+            while (!Server.INSTANCE.joinRoom(room, sender)) {
+                Server.INSTANCE.createRoom(room);
+            }
         } else {
             sender.sendMessage(String.format("Room %s already exists", room));
         }
@@ -438,8 +708,53 @@ public class Room implements AutoCloseable{
         }
     }
 
-    protected void handleListRooms(ServerThread sender, String roomQuery){
-        sender.sendRooms(Server.INSTANCE.listRooms(roomQuery));
+    /**
+     * Opt-in broadcast from a lobby shard to every lobby shard; regular
+     * messages stay in the sender's shard
+     * 
+     * @param sender
+     * @param message
+     */
+    protected void handleAnnounce(ServerThread sender, String message) {
+        if (!Server.INSTANCE.announceToLobby(sender, message)) {
+            sender.sendMessage("Announcements can only be sent from the lobby");
+        }
+    }
+
+    protected void handleListRooms(ServerThread sender, String roomQuery, int limit, String cursor) {
+        RoomIndex.Page page = Server.INSTANCE.listRooms(roomQuery, limit, cursor);
+        sender.sendRooms(page.getRooms(), page.getCursor());
+    }
+
+    /**
+     * Searches the chat log. Every word has to match; only this room's
+     * messages are searched, so members can't read rooms they aren't in.
+     * 
+     * @param sender
+     * @param query
+     */
+    protected void handleSearch(ServerThread sender, String query) {
+        ChatLog chatLog = Server.INSTANCE.getChatLog();
+        if (chatLog == null) {
+            sender.sendMessage(sender.getClientId(), "Search is not available on this server.", false);
+            return;
+        }
+        String text = query == null ? "" : query.trim();
+        long start = System.nanoTime();
+        // runs on the chat log's search threads, not the connection's (an nio
+        // event loop serves many connections) and not the room's worker
+        chatLog.searchAsync(name, text, SEARCH_LIMIT).whenComplete((records, error) -> {
+            if (error == null) {
+                info("search [%s]: %s matches in %sus", text, records.size(),
+                        (System.nanoTime() - start) / 1000);
+                sender.sendSearchResults(query, records);
+            } else if (error instanceof RejectedExecutionException) {
+                sender.sendMessage(sender.getClientId(), "Search is busy, try again later.", false);
+            } else {
+                LoggerUtil.INSTANCE.severe("Search failed", error);
+                sender.sendMessage(sender.getClientId(), "Search failed, try again later.", false);
+            }
+        });
     }
 
     protected void clientDisconnect(ServerThread sender) {
@@ -457,7 +772,7 @@ public class Room implements AutoCloseable{
                     client.addToMuteList(line);
                 }
                 //Log mute list has been successfully loaded
-                LoggerUtil.INSTANCE.info("Mute list loaded from " + file.getName());
+                LoggerUtil.INSTANCE.info("Mute list loaded from %s", file.getName());
                 //Log error message if an IOException occurs while loading the file
             } catch (IOException e) {
                 LoggerUtil.INSTANCE.severe("Encountered issue attempting to load mute list for client: " + client.getClientName(), e);
@@ -474,7 +789,7 @@ public class Room implements AutoCloseable{
                 writer.newLine();
             }
             // Log that the mute list has been successfully saved
-            LoggerUtil.INSTANCE.info("Mute list saved for client: " + client.getClientName());
+            LoggerUtil.INSTANCE.info("Mute list saved for client: %s", client.getClientName());
             // Log an error message if an IOException occurs while saving the file
         } catch (IOException e) {
             LoggerUtil.INSTANCE.severe("Encountered issue attempting to save mute list for client: " + client.getClientName(), e);
@@ -485,12 +800,14 @@ public class Room implements AutoCloseable{
     
     //arc73 7/29/24 - Handle mute method
     public void handleMute(ServerThread sender, Payload payload) {
+        // the mute list is read by broadcasts, so it's only changed from the mailbox
+        mailbox.execute(() -> onMute(sender, payload));
+    }
+
+    private void onMute(ServerThread sender, Payload payload) {
     String targetUsername = payload.getTargetUsername();
 
-    ServerThread targetClient = clientsInRoom.values().stream()
-        .filter(client -> client.getClientName().equalsIgnoreCase(targetUsername))
-        .findFirst()
-        .orElse(null);
+    ServerThread targetClient = findClientInRoom(targetUsername);
 
         if (targetClient != null) {
             if (!sender.isMuted(targetClient.getClientName())) {
@@ -507,12 +824,13 @@ public class Room implements AutoCloseable{
     }
     //arc73 7/29/24 - Handle unmute method
     public void handleUnmute(ServerThread sender, Payload payload) {
+        mailbox.execute(() -> onUnmute(sender, payload));
+    }
+
+    private void onUnmute(ServerThread sender, Payload payload) {
         String targetUsername = payload.getTargetUsername();
     
-        ServerThread targetClient = clientsInRoom.values().stream()
-            .filter(client -> client.getClientName().equalsIgnoreCase(targetUsername))
-            .findFirst()
-            .orElse(null);
+        ServerThread targetClient = findClientInRoom(targetUsername);
     
             if (targetClient != null) {
                 if (sender.isMuted(targetClient.getClientName())) {
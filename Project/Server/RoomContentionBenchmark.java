@@ -0,0 +1,127 @@
+package Project.Server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares the lock-per-room broadcast Room used to do with the mailbox it
+ * does now, under many senders talking in one room at once.
+ * <p>
+ * Each member is a queue standing in for a connection's outbound queue, so a
+ * broadcast costs about what it does on the server minus the encoding. Every
+ * sender thread posts its messages as fast as it can; the benchmark reports
+ * how long senders were held up per message (what a connection thread feels)
+ * and how long until every member had every message. Plain main() so it runs
+ * without extra tooling:
+ * </p>
+ * <pre>java Project.Server.RoomContentionBenchmark [senders] [messages per sender] [members]</pre>
+ */
+public class RoomContentionBenchmark {
+
+    /**
+     * One room's worth of members, each counting what it received
+     */
+    private static class Members {
+        private final List<Queue<Object>> outbound = new ArrayList<>();
+        private final AtomicLong delivered = new AtomicLong();
+
+        Members(int count) {
+            for (int i = 0; i < count; i++) {
+                outbound.add(new ConcurrentLinkedQueue<>());
+            }
+        }
+
+        void broadcast(Object frame) {
+            for (Queue<Object> queue : outbound) {
+                queue.offer(frame);
+                // stands in for the writer draining it
+                queue.poll();
+            }
+            delivered.addAndGet(outbound.size());
+        }
+    }
+
+    private interface Target {
+        void send(Object frame);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int senders = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int memberCount = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        System.out.println(String.format("%d senders x %,d messages into a room of %d", senders, messages, memberCount));
+        // warm up both paths before timing
+        run("lock", senders, messages / 4, memberCount, false);
+        run("mailbox", senders, messages / 4, memberCount, false);
+        run("lock", senders, messages, memberCount, true);
+        run("mailbox", senders, messages, memberCount, true);
+    }
+
+    private static void run(String label, int senders, int messages, int memberCount, boolean print)
+            throws InterruptedException {
+        Members members = new Members(memberCount);
+        Target target;
+        if ("lock".equals(label)) {
+            // what Room.sendMessage used to do: broadcast on the caller's thread
+            ReentrantLock lock = new ReentrantLock();
+            target = frame -> {
+                lock.lock();
+                try {
+                    members.broadcast(frame);
+                } finally {
+                    lock.unlock();
+                }
+            };
+        } else {
+            RoomMailbox mailbox = new RoomMailbox("bench");
+            target = frame -> mailbox.execute(() -> members.broadcast(frame));
+        }
+        long expected = (long) senders * messages * memberCount;
+        long[][] waits = new long[senders][messages];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            long[] mine = waits[s];
+            Thread thread = Thread.ofPlatform().name("sender-" + s).start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Object frame = new Object();
+                for (int i = 0; i < messages; i++) {
+                    long before = System.nanoTime();
+                    target.send(frame);
+                    mine[i] = System.nanoTime() - before;
+                }
+            });
+            threads.add(thread);
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long sendersDone = System.nanoTime() - began;
+        // sleep rather than spin, the room's worker may need this core
+        while (members.delivered.get() < expected) {
+            Thread.sleep(1);
+        }
+        long allDelivered = System.nanoTime() - began;
+        if (!print) {
+            return;
+        }
+        long[] all = Arrays.stream(waits).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.println(String.format(
+                "%-8s sender wait p50 %,8.1f us, p99 %,9.1f us, max %,10.1f us | senders done %,7.1f ms, delivered %,7.1f ms, %,6.0f msgs/ms",
+                label, all[all.length / 2] / 1000.0, all[(int) (all.length * 0.99)] / 1000.0,
+                all[all.length - 1] / 1000.0, sendersDone / 1e6, allDelivered / 1e6,
+                (double) senders * messages / (allDelivered / 1e6)));
+    }
+}
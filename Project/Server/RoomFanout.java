@@ -0,0 +1,75 @@
+package Project.Server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+
+import Project.Common.EncodedPayload;
+
+/**
+ * Splits a broadcast to a very large room into slices that are sent in
+ * parallel on a shared fork-join pool.
+ * <p>
+ * The room's worker sends the first slice itself and then waits for the
+ * others, so a broadcast is finished before the room runs its next command.
+ * Messages from one sender (and from everyone else) still reach each member
+ * in the order the room handled them.
+ * </p>
+ */
+public class RoomFanout {
+    private static final int MIN_SLICE = 512; // smaller slices cost more to hand off than to send
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("fanout-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+
+    private RoomFanout() {
+    }
+
+    /**
+     * Sends the frame to every member that isn't skipped
+     *
+     * @param members the room's members
+     * @param frame   encoded once, shared by every slice
+     * @param skip    members that shouldn't get it (i.e., muting the sender),
+     *                or null; called from several threads
+     * @return the members the frame couldn't be sent to
+     */
+    protected static List<ServerThread> send(ServerThread[] members, EncodedPayload frame,
+            Predicate<ServerThread> skip) {
+        int slices = Math.max(1, Math.min(POOL.getParallelism() + 1, members.length / MIN_SLICE));
+        int size = (members.length + slices - 1) / slices;
+        List<ForkJoinTask<List<ServerThread>>> others = new ArrayList<>(slices - 1);
+        for (int from = size; from < members.length; from += size) {
+            int start = from;
+            int end = Math.min(members.length, from + size);
+            others.add(POOL.submit(() -> sendSlice(members, start, end, frame, skip)));
+        }
+        List<ServerThread> failed = sendSlice(members, 0, Math.min(size, members.length), frame, skip);
+        // barrier: the room doesn't move on until every slice is out
+        for (ForkJoinTask<List<ServerThread>> slice : others) {
+            failed.addAll(slice.join());
+        }
+        return failed;
+    }
+
+    private static List<ServerThread> sendSlice(ServerThread[] members, int start, int end, EncodedPayload frame,
+            Predicate<ServerThread> skip) {
+        List<ServerThread> failed = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            ServerThread client = members[i];
+            if (skip != null && skip.test(client)) {
+                continue;
+            }
+            if (!client.send(frame)) {
+                failed.add(client);
+            }
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,165 @@
+package Project.Server;
+
+import java.util.Set;
+
+import Project.Common.EncodedPayload;
+import Project.Common.HistoryPayload;
+
+/**
+ * The last messages said in a Room, replayed to whoever joins.
+ * <p>
+ * A ring over parallel arrays (sender id, sender name, formatted message)
+ * bounded by a message count and an approximate byte budget; the oldest
+ * entries are overwritten or evicted first. The arrays are only allocated
+ * once the room says something and are released again by {@link #evict()},
+ * so quiet rooms cost nothing.
+ * </p>
+ * <p>
+ * Not thread-safe, the owning Room only touches it from its mailbox.
+ * </p>
+ */
+public class RoomHistory {
+    // rough per-entry cost on top of the strings (array slots, String headers)
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private long[] senderIds;
+    private String[] senderNames;
+    private String[] messages;
+    private int head = 0; // index of the oldest entry
+    private int count = 0;
+    private long bytes = 0;
+    private long lastAppend = 0;
+    private EncodedPayload replay; // shared frame for joiners that mute nobody, dropped on change
+
+    /**
+     * @param maxMessages most entries to keep, 0 disables history
+     * @param maxBytes    approximate memory budget for the entries
+     */
+    public RoomHistory(int maxMessages, long maxBytes) {
+        this.maxMessages = Math.max(0, maxMessages);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Records a message that was broadcast to the room
+     *
+     * @param senderId
+     * @param senderName null for server messages
+     * @param message    the formatted text that was sent
+     */
+    public void append(long senderId, String senderName, String message) {
+        if (maxMessages == 0 || message == null) {
+            return;
+        }
+        long size = sizeOf(senderName, message);
+        if (size > maxBytes) {
+            return; // would evict everything else and still not fit
+        }
+        if (messages == null) {
+            senderIds = new long[maxMessages];
+            senderNames = new String[maxMessages];
+            messages = new String[maxMessages];
+        }
+        while (count > 0 && (count == maxMessages || bytes + size > maxBytes)) {
+            removeOldest();
+        }
+        int slot = (head + count) % maxMessages;
+        senderIds[slot] = senderId;
+        senderNames[slot] = senderName;
+        messages[slot] = message;
+        count++;
+        bytes += size;
+        lastAppend = System.currentTimeMillis();
+        replay = null;
+    }
+
+    /**
+     * Builds the replay for a joiner
+     *
+     * @param muted names the joiner muted (their messages are left out), may
+     *              be empty
+     * @return one frame holding every kept message oldest first, or null if
+     *         there's nothing to replay
+     */
+    public EncodedPayload replayFor(Set<String> muted) {
+        if (count == 0) {
+            return null;
+        }
+        if (muted.isEmpty()) {
+            if (replay == null) {
+                replay = new EncodedPayload(build(muted));
+            }
+            return replay;
+        }
+        HistoryPayload payload = build(muted);
+        return payload.size() == 0 ? null : new EncodedPayload(payload);
+    }
+
+    /**
+     * Releases the buffer if nothing was said for a while
+     *
+     * @param idleMillis how long the room has to be quiet
+     * @return true if the buffer was released
+     */
+    public boolean evictIfIdle(long idleMillis) {
+        if (messages == null || System.currentTimeMillis() - lastAppend < idleMillis) {
+            return false;
+        }
+        evict();
+        return true;
+    }
+
+    /**
+     * Forgets every message and releases the buffer
+     */
+    public void evict() {
+        senderIds = null;
+        senderNames = null;
+        messages = null;
+        head = 0;
+        count = 0;
+        bytes = 0;
+        replay = null;
+    }
+
+    /**
+     * @return the number of kept messages
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the approximate memory used by the kept messages
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    private HistoryPayload build(Set<String> muted) {
+        HistoryPayload payload = new HistoryPayload();
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % maxMessages;
+            String name = senderNames[slot];
+            if (name != null && muted.contains(name)) {
+                continue;
+            }
+            payload.add(senderIds[slot], name, messages[slot]);
+        }
+        return payload;
+    }
+
+    private void removeOldest() {
+        bytes -= sizeOf(senderNames[head], messages[head]);
+        senderNames[head] = null;
+        messages[head] = null;
+        head = (head + 1) % maxMessages;
+        count--;
+    }
+
+    private static long sizeOf(String senderName, String message) {
+        return ENTRY_OVERHEAD + 2L * (message.length() + (senderName == null ? 0 : senderName.length()));
+    }
+}
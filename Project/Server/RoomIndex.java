@@ -0,0 +1,243 @@
+package Project.Server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searchable index of room names for ROOM_LIST.
+ * <p>
+ * Names are folded to lower case (rooms are unique case-insensitively) and
+ * kept in two structures:
+ * </p>
+ * <ul>
+ * <li>a sorted map, so prefix matches are a range scan</li>
+ * <li>an n-gram index (every 1, 2 and 3 character substring of each name),
+ * so substring matches only look at names sharing the query's rarest
+ * trigram instead of every room</li>
+ * </ul>
+ * <p>
+ * Results are ranked prefix matches first, then the remaining substring
+ * matches, each alphabetically. Pages are resumed with an opaque cursor that
+ * remembers the tier and the last name returned, so rooms created or removed
+ * between pages don't shift the results.
+ * </p>
+ */
+public class RoomIndex {
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+    private static final int GRAM = 3;
+    private static final String PREFIX_TIER = "p:";
+    private static final String SUBSTRING_TIER = "s:";
+
+    /**
+     * One page of results
+     */
+    public static class Page {
+        private final List<String> rooms;
+        private final String cursor;
+
+        Page(List<String> rooms, String cursor) {
+            this.rooms = Collections.unmodifiableList(rooms); // pages may be shared through RoomQueryCache
+            this.cursor = cursor;
+        }
+
+        /**
+         * @return room names in rank order
+         */
+        public List<String> getRooms() {
+            return rooms;
+        }
+
+        /**
+         * @return where the next page starts, null if this was the last one
+         */
+        public String getCursor() {
+            return cursor;
+        }
+    }
+
+    private final ConcurrentSkipListMap<String, String> names = new ConcurrentSkipListMap<>(); // folded -> as created
+    private final ConcurrentHashMap<String, Set<String>> grams = new ConcurrentHashMap<>(); // gram -> folded names
+    private final AtomicLong version = new AtomicLong(); // bumped on every change to the set of names
+
+    /**
+     * @param name room to make searchable
+     */
+    public void add(String name) {
+        String folded = fold(name);
+        if (names.putIfAbsent(folded, name) != null) {
+            return;
+        }
+        for (String gram : gramsOf(folded)) {
+            grams.compute(gram, (key, holders) -> {
+                if (holders == null) {
+                    holders = ConcurrentHashMap.newKeySet();
+                }
+                holders.add(folded);
+                return holders;
+            });
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * @param name room to forget
+     */
+    public void remove(String name) {
+        String folded = fold(name);
+        if (names.remove(folded) == null) {
+            return;
+        }
+        for (String gram : gramsOf(folded)) {
+            grams.computeIfPresent(gram, (key, holders) -> {
+                holders.remove(folded);
+                return holders.isEmpty() ? null : holders;
+            });
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Changes whenever a room is added or removed, so results computed at the
+     * same version are still valid
+     *
+     * @return the current version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return the number of indexed rooms
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Finds rooms whose name contains the query (case-insensitive)
+     *
+     * @param query  text to look for, empty lists every room
+     * @param limit  page size, clamped to 1..{@link #MAX_LIMIT} (0 or less
+     *               means {@link #DEFAULT_LIMIT})
+     * @param cursor {@link Page#getCursor()} of the previous page, or null
+     *               for the first page
+     * @return the page
+     */
+    public Page search(String query, int limit, String cursor) {
+        String folded = normalize(query);
+        int pageSize = pageSize(limit);
+        List<String> rooms = new ArrayList<>(Math.min(pageSize, 64));
+        boolean inSubstringTier = cursor != null && cursor.startsWith(SUBSTRING_TIER);
+        String after = cursor == null || cursor.length() <= 2 ? null : cursor.substring(2);
+
+        if (!inSubstringTier) {
+            NavigableMap<String, String> range = folded.isEmpty() ? names
+                    : names.subMap(folded, true, folded + Character.MAX_VALUE, false);
+            if (after != null) {
+                range = range.tailMap(after, false);
+            }
+            String last = null;
+            for (var entry : range.entrySet()) {
+                if (rooms.size() == pageSize) {
+                    return new Page(rooms, PREFIX_TIER + last);
+                }
+                rooms.add(entry.getValue());
+                last = entry.getKey();
+            }
+            if (folded.isEmpty()) {
+                return new Page(rooms, null); // everything matched the prefix tier
+            }
+            after = null;
+        }
+
+        // substring tier: names containing the query somewhere after the start
+        int wanted = pageSize - rooms.size();
+        // keeps the alphabetically first wanted + 1 matches (largest on top to be evicted)
+        PriorityQueue<String> best = new PriorityQueue<>(Math.min(wanted + 1, 64), Collections.reverseOrder());
+        for (String candidate : candidates(folded)) {
+            if (candidate.startsWith(folded) || !candidate.contains(folded)
+                    || after != null && candidate.compareTo(after) <= 0) {
+                continue;
+            }
+            best.add(candidate);
+            if (best.size() > wanted + 1) {
+                best.poll();
+            }
+        }
+        boolean more = best.size() > wanted;
+        if (more) {
+            best.poll();
+        }
+        List<String> matches = new ArrayList<>(best);
+        Collections.sort(matches);
+        String last = ""; // a full page of prefix matches continues at the start of this tier
+        for (String match : matches) {
+            String name = names.get(match);
+            if (name != null) { // skip rooms removed mid-search
+                rooms.add(name);
+            }
+            last = match;
+        }
+        return new Page(rooms, more ? SUBSTRING_TIER + last : null);
+    }
+
+    /**
+     * Names that could contain the query: the smallest posting list among the
+     * query's grams (the query itself when it's short enough to be one)
+     */
+    private Set<String> candidates(String folded) {
+        if (folded.length() <= GRAM) {
+            Set<String> holders = grams.get(folded);
+            return holders == null ? Set.of() : holders;
+        }
+        Set<String> smallest = null;
+        for (int i = 0; i + GRAM <= folded.length(); i++) {
+            Set<String> holders = grams.get(folded.substring(i, i + GRAM));
+            if (holders == null) {
+                return Set.of(); // some part of the query appears in no name
+            }
+            if (smallest == null || holders.size() < smallest.size()) {
+                smallest = holders;
+            }
+        }
+        return smallest;
+    }
+
+    private static Set<String> gramsOf(String folded) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i < folded.length(); i++) {
+            for (int n = 1; n <= GRAM && i + n <= folded.length(); n++) {
+                result.add(folded.substring(i, i + n));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the query the way search() compares it
+     */
+    static String normalize(String query) {
+        return query == null ? "" : fold(query.trim());
+    }
+
+    /**
+     * @return the page size search() uses for the requested limit
+     */
+    static int pageSize(int limit) {
+        return limit <= 0 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT);
+    }
+
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
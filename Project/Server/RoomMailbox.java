@@ -0,0 +1,148 @@
+package Project.Server;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * A Room's inbox: commands submitted from any thread run one at a time, in
+ * the order they were submitted, so the room's state only ever has a single
+ * writer and needs no lock.
+ * <p>
+ * Mailboxes don't own threads. Each one is pinned to a RoomWorker by the
+ * RoomScheduler; with work it's queued once on that worker, runs up to
+ * {@link #BATCH} commands and then gives the worker back (queuing itself
+ * again if more arrived), so a busy room can't starve the others on the same
+ * worker. Submitting never blocks; the connection threads hand a command over
+ * and go back to reading.
+ * </p>
+ */
+public class RoomMailbox implements Executor {
+    private static final int BATCH = 64; // commands per turn before other rooms get the worker
+
+    private final String name;
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    private volatile RoomWorker worker;
+    // only written by whichever worker is running a turn, turns never overlap
+    private volatile long cpuNanos = 0;
+
+    /**
+     * @param name the room's name, picks the worker and shows up in logs
+     */
+    public RoomMailbox(String name) {
+        this.name = name;
+        this.worker = RoomScheduler.INSTANCE.assign(this);
+    }
+
+    /**
+     * Queues a command, never blocks
+     *
+     * @param command runs after everything submitted before it
+     */
+    @Override
+    public void execute(Runnable command) {
+        commands.add(command);
+        schedule();
+    }
+
+    /**
+     * Queues a command and lets the caller wait for it
+     *
+     * @param command
+     * @return completes once the command ran
+     */
+    public CompletableFuture<Void> submit(Runnable command) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                command.run();
+            } finally {
+                done.complete(null);
+            }
+        });
+        return done;
+    }
+
+    /**
+     * @return commands waiting to run
+     */
+    public int size() {
+        return commands.size();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the worker this room's commands run on
+     */
+    public RoomWorker getWorker() {
+        return worker;
+    }
+
+    /**
+     * @return total CPU time the room's commands took
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    protected void addCpuNanos(long nanos) {
+        cpuNanos += nanos;
+    }
+
+    /**
+     * Runs later turns on another worker. A turn already queued or running
+     * finishes where it is, the next one is queued on the new worker, so
+     * commands still run one at a time and in order.
+     *
+     * @param worker
+     */
+    protected void moveTo(RoomWorker worker) {
+        this.worker = worker;
+    }
+
+    /**
+     * Unpins the room from its worker once it's closed
+     */
+    protected void close() {
+        RoomScheduler.INSTANCE.release(this);
+    }
+
+    private void schedule() {
+        if (isScheduled.compareAndSet(false, true)) {
+            worker.submit(this);
+        }
+    }
+
+    /**
+     * Runs up to {@link #BATCH} commands, called by the worker
+     */
+    protected void runTurn() {
+        try {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable command = commands.poll();
+                if (command == null) {
+                    break;
+                }
+                try {
+                    command.run();
+                } catch (Exception e) {
+                    LoggerUtil.INSTANCE.severe(String.format("Room[%s] command failed", name), e);
+                }
+            }
+        } finally {
+            isScheduled.set(false);
+            // something may have arrived after the last poll, while we still looked scheduled
+            if (!commands.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package Project.Server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Remembers ROOM_LIST results until the set of rooms changes.
+ * <p>
+ * Entries are keyed by the normalized query, page size and cursor, and live
+ * in a generation tied to {@link RoomIndex#getVersion()}. Creating or
+ * removing a room bumps the version, and the next lookup swaps in an empty
+ * generation, so stale pages are never served and old ones are dropped all
+ * at once.
+ * </p>
+ * <p>
+ * Lookups are single-flight: the first request for a key computes the page,
+ * identical requests that arrive meanwhile wait on the same future instead
+ * of searching again.
+ * </p>
+ */
+public class RoomQueryCache {
+    // keeps a flood of unique queries from growing a generation without bound
+    private static final int MAX_ENTRIES = 4096;
+
+    private final RoomIndex index;
+    private final AtomicReference<Generation> generation;
+
+    /**
+     * @param index the rooms to search
+     */
+    public RoomQueryCache(RoomIndex index) {
+        this.index = index;
+        this.generation = new AtomicReference<>(new Generation(index.getVersion()));
+    }
+
+    /**
+     * Same as {@link RoomIndex#search(String, int, String)}, reusing the
+     * result of an identical search made since the rooms last changed
+     *
+     * @param query
+     * @param limit
+     * @param cursor
+     * @return the page
+     */
+    public RoomIndex.Page search(String query, int limit, String cursor) {
+        String normalized = RoomIndex.normalize(query);
+        int pageSize = RoomIndex.pageSize(limit);
+        Generation current = current();
+        String key = normalized + '\u0000' + pageSize + '\u0000' + (cursor == null ? "" : cursor);
+        CompletableFuture<RoomIndex.Page> pending = current.results.get(key);
+        if (pending == null) {
+            if (current.results.size() >= MAX_ENTRIES) {
+                return index.search(normalized, pageSize, cursor);
+            }
+            CompletableFuture<RoomIndex.Page> mine = new CompletableFuture<>();
+            pending = current.results.putIfAbsent(key, mine);
+            if (pending == null) {
+                // this request does the work, anyone else asking for the key waits on it
+                try {
+                    mine.complete(index.search(normalized, pageSize, cursor));
+                } catch (RuntimeException e) {
+                    current.results.remove(key, mine);
+                    mine.completeExceptionally(e);
+                    throw e;
+                }
+                return mine.join();
+            }
+        }
+        return pending.join();
+    }
+
+    /**
+     * @return the generation for the index's current version, replacing an
+     *         outdated one (a newer one installed meanwhile is used as is)
+     */
+    private Generation current() {
+        long version = index.getVersion();
+        Generation current = generation.get();
+        while (current.version < version) {
+            Generation fresh = new Generation(version);
+            if (generation.compareAndSet(current, fresh)) {
+                return fresh;
+            }
+            current = generation.get();
+        }
+        return current;
+    }
+
+    /**
+     * Results computed while the rooms were at one version
+     */
+    private static class Generation {
+        private final long version;
+        private final ConcurrentHashMap<String, CompletableFuture<RoomIndex.Page>> results = new ConcurrentHashMap<>();
+
+        Generation(long version) {
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package Project.Server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Pins every room to one of a fixed set of RoomWorkers by hashing its name,
+ * so a room's work always runs on the same thread.
+ * <p>
+ * Hashing can put two busy rooms on the same worker. Every rebalance
+ * interval the scheduler compares the CPU each worker spent since the last
+ * check and, if it helps, moves the hottest room it can off the busiest
+ * worker onto the idlest one.
+ * </p>
+ */
+public enum RoomScheduler {
+    INSTANCE;
+
+    private volatile RoomWorker[] workers;
+    // CPU seen at the last rebalance, keyed by worker and by mailbox
+    private final Map<Object, Long> lastCpu = new HashMap<>();
+
+    /**
+     * Starts the workers; rooms created before this get a worker per core
+     *
+     * @param workerCount      number of worker threads (minimum of 1)
+     * @param rebalanceSeconds seconds between rebalances, 0 or less disables it
+     */
+    protected synchronized void start(int workerCount, int rebalanceSeconds) {
+        if (workers == null) {
+            startWorkers(workerCount);
+        }
+        if (rebalanceSeconds <= 0) {
+            return;
+        }
+        Thread.ofPlatform().daemon().name("room-balancer").start(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(rebalanceSeconds * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                rebalance();
+            }
+        });
+    }
+
+    private RoomWorker[] workers() {
+        RoomWorker[] current = workers;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (workers == null) {
+                startWorkers(Runtime.getRuntime().availableProcessors());
+            }
+            return workers;
+        }
+    }
+
+    private void startWorkers(int workerCount) {
+        RoomWorker[] started = new RoomWorker[Math.max(1, workerCount)];
+        for (int i = 0; i < started.length; i++) {
+            started[i] = new RoomWorker(i + 1);
+            started[i].start();
+        }
+        workers = started;
+        LoggerUtil.INSTANCE.info("Started %s room workers", started.length);
+    }
+
+    /**
+     * Picks the worker for a new room
+     *
+     * @param mailbox the room's mailbox
+     * @return the worker its name hashes to
+     */
+    protected RoomWorker assign(RoomMailbox mailbox) {
+        RoomWorker[] all = workers();
+        RoomWorker worker = all[Math.floorMod(mailbox.getName().toLowerCase().hashCode(), all.length)];
+        worker.pin(mailbox);
+        return worker;
+    }
+
+    /**
+     * Forgets a room that closed
+     *
+     * @param mailbox
+     */
+    protected synchronized void release(RoomMailbox mailbox) {
+        mailbox.getWorker().unpin(mailbox);
+    }
+
+    /**
+     * Moves a room to another worker; commands already queued finish first
+     *
+     * @param mailbox the room's mailbox
+     * @param index   the worker's index (see {@link RoomWorker#getIndex()})
+     * @return false if there's no such worker
+     */
+    private boolean move(RoomMailbox mailbox, int index) {
+        RoomWorker[] all = workers();
+        if (index < 1 || index > all.length) {
+            return false;
+        }
+        RoomWorker from = mailbox.getWorker();
+        RoomWorker to = all[index - 1];
+        if (from != to) {
+            from.unpin(mailbox);
+            to.pin(mailbox);
+            mailbox.moveTo(to);
+            LoggerUtil.INSTANCE.info("Moved Room[%s] from %s to %s", mailbox.getName(), from.getName(), to.getName());
+        }
+        return true;
+    }
+
+    /**
+     * Moves one room from the busiest worker to the idlest one if that lowers
+     * the busiest worker's load; called on an interval
+     */
+    protected synchronized void rebalance() {
+        RoomWorker[] all = workers();
+        RoomWorker busiest = null;
+        RoomWorker idlest = null;
+        long busiestLoad = -1;
+        long idlestLoad = Long.MAX_VALUE;
+        Map<RoomMailbox, Long> roomLoads = new HashMap<>();
+        for (RoomWorker worker : all) {
+            long load = sample(worker, worker.getCpuNanos());
+            for (RoomMailbox mailbox : worker.getRooms()) {
+                roomLoads.put(mailbox, sample(mailbox, mailbox.getCpuNanos()));
+            }
+            if (load > busiestLoad) {
+                busiestLoad = load;
+                busiest = worker;
+            }
+            if (load < idlestLoad) {
+                idlestLoad = load;
+                idlest = worker;
+            }
+        }
+        // drop closed rooms
+        lastCpu.keySet().removeIf(key -> key instanceof RoomMailbox && !roomLoads.containsKey(key));
+        if (busiest == idlest) {
+            return;
+        }
+        RoomMailbox hottest = null;
+        long hottestLoad = 0;
+        for (RoomMailbox mailbox : busiest.getRooms()) {
+            long load = roomLoads.getOrDefault(mailbox, 0L);
+            // only worth it if the busiest worker ends up less busy than before
+            if (load > hottestLoad && idlestLoad + load < busiestLoad) {
+                hottest = mailbox;
+                hottestLoad = load;
+            }
+        }
+        if (hottest != null) {
+            LoggerUtil.INSTANCE.info("Rebalancing: %s used %sms, %s used %sms, Room[%s] used %sms",
+                    busiest.getName(), busiestLoad / 1_000_000, idlest.getName(), idlestLoad / 1_000_000,
+                    hottest.getName(), hottestLoad / 1_000_000);
+            move(hottest, idlest.getIndex());
+        }
+    }
+
+    private long sample(Object key, long cpuNanos) {
+        Long last = lastCpu.put(key, cpuNanos);
+        return last == null ? cpuNanos : cpuNanos - last;
+    }
+
+    /**
+     * @return CPU time per worker and its busiest rooms, for the metrics log
+     */
+    public String snapshot() {
+        StringBuilder sb = new StringBuilder("RoomWorkers[");
+        RoomWorker[] all = workers();
+        for (int i = 0; i < all.length; i++) {
+            RoomWorker worker = all[i];
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format("%s cpu=%sms rooms=%s backlog=%s", worker.getName(),
+                    worker.getCpuNanos() / 1_000_000, worker.getRooms().size(), worker.getBacklog()));
+            List<RoomMailbox> hot = new ArrayList<>(worker.getRooms());
+            hot.sort(Comparator.comparingLong(RoomMailbox::getCpuNanos).reversed());
+            for (int r = 0; r < Math.min(3, hot.size()); r++) {
+                sb.append(r == 0 ? " (" : ", ").append(hot.get(r).getName()).append('=')
+                        .append(hot.get(r).getCpuNanos() / 1_000_000).append("ms");
+            }
+            if (!hot.isEmpty()) {
+                sb.append(')');
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,115 @@
+package Project.Server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * One thread that runs the mailboxes of the rooms pinned to it.
+ * A room's commands always run on its worker, so its state stays on one
+ * core instead of following whichever connection thread was talking.
+ * Keeps the CPU time spent on each room so the busiest rooms can be found
+ * and moved elsewhere.
+ */
+public class RoomWorker implements Runnable {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final int index;
+    private final Thread thread;
+    private final BlockingQueue<RoomMailbox> ready = new LinkedBlockingQueue<>();
+    private final Set<RoomMailbox> rooms = ConcurrentHashMap.newKeySet();
+    private final boolean isCpuTimeSupported = THREADS.isCurrentThreadCpuTimeSupported();
+    private volatile long cpuNanos = 0; // only written by this worker's thread
+
+    protected RoomWorker(int index) {
+        this.index = index;
+        thread = new Thread(this, "room-" + index);
+        thread.setDaemon(true);
+    }
+
+    protected void start() {
+        thread.start();
+    }
+
+    /**
+     * Queues a mailbox that has work, it runs one turn then gets queued again
+     * if anything is left
+     *
+     * @param mailbox
+     */
+    protected void submit(RoomMailbox mailbox) {
+        ready.add(mailbox);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            RoomMailbox mailbox;
+            try {
+                mailbox = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long before = now();
+            try {
+                mailbox.runTurn();
+            } catch (Throwable t) {
+                // the worker outlives any one turn, every room pinned here depends on it
+                LoggerUtil.INSTANCE.severe("Unhandled error in " + thread.getName(), t);
+            }
+            long spent = now() - before;
+            cpuNanos += spent;
+            mailbox.addCpuNanos(spent);
+        }
+    }
+
+    private long now() {
+        // thread CPU time rather than wall time, so being preempted doesn't count as load
+        return isCpuTimeSupported ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    protected void pin(RoomMailbox mailbox) {
+        rooms.add(mailbox);
+    }
+
+    protected void unpin(RoomMailbox mailbox) {
+        rooms.remove(mailbox);
+    }
+
+    /**
+     * @return the rooms currently pinned here
+     */
+    protected Set<RoomMailbox> getRooms() {
+        return rooms;
+    }
+
+    /**
+     * @return position in the scheduler's worker list
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return total CPU time spent running rooms
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /**
+     * @return mailboxes waiting for a turn
+     */
+    public int getBacklog() {
+        return ready.size();
+    }
+
+    public String getName() {
+        return thread.getName();
+    }
+}
@@ -0,0 +1,424 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Inverted index over the {@link ChatLog} for <code>/search</code>.
+ * <p>
+ * Every chat log segment gets its own postings: a term maps to the offsets
+ * (inside that segment) of the records containing it, stored as varint
+ * deltas. Each term is indexed twice, once on its own and once prefixed with
+ * the folded room name, so a search inside a room never looks at other
+ * rooms' postings. The segment being written has its postings in memory,
+ * updated by the chat log writer as records are appended; when a segment is
+ * sealed they're written next to it as a <code>.postings</code> file (sorted
+ * dictionary followed by the posting bytes) that is memory-mapped for queries.
+ * The log stays the source of truth: postings that are missing at startup
+ * are rebuilt by scanning their segment.
+ * </p>
+ */
+public class SearchIndex {
+    static final String SUFFIX = ".postings";
+    private static final int MAGIC = 0x434C5049; // "CLPI"
+    private static final int MIN_TERM = 2;
+    private static final int MAX_TERM = 32;
+    private static final Pattern TAGS = Pattern.compile("<[^>]*>");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final char ROOM_SEPARATOR = '\u0000';
+
+    /**
+     * Offsets of one segment's records, per key
+     */
+    private interface Postings {
+        /**
+         * @return how many records contain the key, 0 if none
+         */
+        int count(String key);
+
+        /**
+         * @return ascending offsets of the records containing the key
+         */
+        int[] offsets(String key);
+    }
+
+    private final Map<Long, Postings> segments = new ConcurrentHashMap<>(); // segment sequence -> postings
+
+    /**
+     * Splits text into the terms that get indexed: markup removed, folded to
+     * lower case, letters and digits only, duplicates dropped
+     *
+     * @param text a message or a query
+     * @return the distinct terms in order of appearance
+     */
+    static List<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text != null) {
+            String plain = TAGS.matcher(text).replaceAll(" ").toLowerCase(Locale.ROOT);
+            for (String term : SEPARATORS.split(plain)) {
+                if (term.length() >= MIN_TERM) {
+                    terms.add(term.length() > MAX_TERM ? term.substring(0, MAX_TERM) : term);
+                }
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    /**
+     * @param room  folded room name or null for every room
+     * @param terms terms from {@link #tokenize(String)}
+     * @return the postings keys to intersect
+     */
+    static List<String> keys(String room, List<String> terms) {
+        List<String> keys = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            keys.add(room == null ? term : room + ROOM_SEPARATOR + term);
+        }
+        return keys;
+    }
+
+    /**
+     * Indexes a record of the segment being written, called by the chat log
+     * writer only
+     *
+     * @param segment sequence of the segment the record is in
+     * @param offset  the record's offset
+     * @param room    room it was said in
+     * @param message the message
+     */
+    void add(long segment, int offset, String room, String message) {
+        Postings postings = segments.computeIfAbsent(segment, sequence -> new LivePostings());
+        if (postings instanceof LivePostings) {
+            ((LivePostings) postings).add(offset, room.toLowerCase(Locale.ROOT), tokenize(message));
+        }
+    }
+
+    /**
+     * Writes the postings of a segment that won't change anymore and switches
+     * queries over to the file
+     *
+     * @param segment a sealed segment
+     */
+    void seal(ChatLogSegment segment) throws IOException {
+        Postings postings = segments.get(segment.getSequence());
+        if (postings instanceof LivePostings) {
+            Path file = postingsPath(segment);
+            ((LivePostings) postings).write(file);
+            segments.put(segment.getSequence(), SealedPostings.open(file));
+        }
+    }
+
+    /**
+     * Makes an existing segment searchable at startup, from its postings file
+     * if it's sealed and has one, otherwise by scanning it
+     *
+     * @param segment
+     * @param sealed  false for the segment that will keep being appended to
+     */
+    void load(ChatLogSegment segment, boolean sealed) throws IOException {
+        Path file = postingsPath(segment);
+        if (sealed && Files.exists(file)) {
+            try {
+                segments.put(segment.getSequence(), SealedPostings.open(file));
+                return;
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.warning("Rebuilding unreadable postings " + file, e);
+            }
+        }
+        LivePostings live = new LivePostings();
+        segment.scan((record, offset) -> live.add(offset, record.getRoom().toLowerCase(Locale.ROOT),
+                tokenize(record.getMessage())));
+        segments.put(segment.getSequence(), live);
+        if (sealed) {
+            seal(segment);
+        }
+    }
+
+    /**
+     * Finds the records of a segment containing every key
+     *
+     * @param segment sequence of the segment
+     * @param keys    from {@link #keys(String, List)}
+     * @return ascending record offsets
+     */
+    int[] find(long segment, List<String> keys) {
+        Postings postings = segments.get(segment);
+        if (postings == null || keys.isEmpty()) {
+            return new int[0];
+        }
+        // intersect from the rarest key so the working set only shrinks
+        String[] ordered = keys.toArray(new String[0]);
+        int[] counts = new int[ordered.length];
+        for (int i = 0; i < ordered.length; i++) {
+            counts[i] = postings.count(ordered[i]);
+            if (counts[i] == 0) {
+                return new int[0];
+            }
+        }
+        Integer[] order = new Integer[ordered.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(counts[a], counts[b]));
+        int[] result = postings.offsets(ordered[order[0]]);
+        for (int i = 1; i < order.length && result.length > 0; i++) {
+            result = intersect(result, postings.offsets(ordered[order[i]]));
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    private static Path postingsPath(ChatLogSegment segment) {
+        String name = segment.getPath().getFileName().toString();
+        return segment.getPath().resolveSibling(
+                name.substring(0, name.length() - ChatLogSegment.SUFFIX.length()) + SUFFIX);
+    }
+
+    private static int[] decode(ByteBuffer bytes, int start, int length, int count) {
+        int[] offsets = new int[count];
+        int position = start;
+        int end = start + length;
+        int previous = 0;
+        for (int i = 0; i < count && position < end; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes.get(position++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += delta;
+            offsets[i] = previous;
+        }
+        return offsets;
+    }
+
+    /**
+     * Postings of the segment being written, appended to by the writer and
+     * read by queries under a lock
+     */
+    private static class LivePostings implements Postings {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final HashMap<String, Posting> postings = new HashMap<>();
+
+        /**
+         * Growable varint delta list for one key
+         */
+        private static class Posting {
+            private byte[] bytes = new byte[8];
+            private int size = 0;
+            private int count = 0;
+            private int last = 0;
+
+            void add(int offset) {
+                if (size + 5 > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int delta = offset - last;
+                while ((delta & ~0x7F) != 0) {
+                    bytes[size++] = (byte) ((delta & 0x7F) | 0x80);
+                    delta >>>= 7;
+                }
+                bytes[size++] = (byte) delta;
+                last = offset;
+                count++;
+            }
+        }
+
+        void add(int offset, String room, List<String> terms) {
+            lock.lock();
+            try {
+                for (String term : terms) {
+                    postings.computeIfAbsent(term, key -> new Posting()).add(offset);
+                    postings.computeIfAbsent(room + ROOM_SEPARATOR + term, key -> new Posting()).add(offset);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int count(String key) {
+            lock.lock();
+            try {
+                Posting posting = postings.get(key);
+                return posting == null ? 0 : posting.count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int[] offsets(String key) {
+            lock.lock();
+            try {
+                Posting posting = postings.get(key);
+                return posting == null ? new int[0]
+                        : decode(ByteBuffer.wrap(posting.bytes), 0, posting.size, posting.count);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Writes <code>[int magic][int keys]</code>, then per key in sorted order
+         * <code>[short length][key][int count][int bytes]</code>, then the
+         * posting bytes in the same order. Written to a temporary file and
+         * moved into place so a crash never leaves half a file behind.
+         */
+        void write(Path file) throws IOException {
+            lock.lock();
+            try {
+                String[] keys = postings.keySet().toArray(new String[0]);
+                Arrays.sort(keys);
+                Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                    buffer.putInt(MAGIC).putInt(keys.length);
+                    for (String key : keys) {
+                        byte[] name = key.getBytes(StandardCharsets.UTF_8);
+                        Posting posting = postings.get(key);
+                        buffer = ensure(channel, buffer, 2 + name.length + 8);
+                        buffer.putShort((short) name.length).put(name).putInt(posting.count).putInt(posting.size);
+                    }
+                    for (String key : keys) {
+                        Posting posting = postings.get(key);
+                        buffer = ensure(channel, buffer, posting.size);
+                        buffer.put(posting.bytes, 0, posting.size);
+                    }
+                    flush(channel, buffer);
+                    channel.force(false);
+                }
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return a buffer with at least the needed space, flushing or growing
+         *         the current one
+         */
+        private static ByteBuffer ensure(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+            if (buffer.remaining() >= needed) {
+                return buffer;
+            }
+            flush(channel, buffer);
+            return needed <= buffer.capacity() ? buffer : ByteBuffer.allocate(needed);
+        }
+
+        private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Postings of a sealed segment: the dictionary is loaded into sorted
+     * arrays, the posting bytes stay in the mapped file
+     */
+    private static class SealedPostings implements Postings {
+        private final String[] keys;
+        private final int[] counts;
+        private final int[] starts;
+        private final int[] lengths;
+        private final ByteBuffer bytes;
+
+        private SealedPostings(String[] keys, int[] counts, int[] starts, int[] lengths, ByteBuffer bytes) {
+            this.keys = keys;
+            this.counts = counts;
+            this.starts = starts;
+            this.lengths = lengths;
+            this.bytes = bytes;
+        }
+
+        static SealedPostings open(Path file) throws IOException {
+            ByteBuffer data;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            try {
+                if (data.getInt() != MAGIC) {
+                    throw new IOException("Not a postings file: " + file);
+                }
+                int size = data.getInt();
+                String[] keys = new String[size];
+                int[] counts = new int[size];
+                int[] starts = new int[size];
+                int[] lengths = new int[size];
+                for (int i = 0; i < size; i++) {
+                    byte[] name = new byte[data.getShort() & 0xFFFF];
+                    data.get(name);
+                    keys[i] = new String(name, StandardCharsets.UTF_8);
+                    counts[i] = data.getInt();
+                    lengths[i] = data.getInt();
+                }
+                int start = data.position();
+                for (int i = 0; i < size; i++) {
+                    starts[i] = start;
+                    start += lengths[i];
+                }
+                if (start > data.limit()) {
+                    throw new IOException("Truncated postings file: " + file);
+                }
+                return new SealedPostings(keys, counts, starts, lengths, data);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt postings file: " + file, e);
+            }
+        }
+
+        @Override
+        public int count(String key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index < 0 ? 0 : counts[index];
+        }
+
+        @Override
+        public int[] offsets(String key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index < 0 ? new int[0] : decode(bytes, starts[index], lengths[index], counts[index]);
+        }
+    }
+}
@@ -2,10 +2,16 @@ package Project.Server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import Project.Common.AsyncLogHandler;
 import Project.Common.LoggerUtil;
+import Project.Common.ReconnectPayload;
 
 public enum Server {
     INSTANCE;
@@ -16,28 +22,64 @@ public enum Server {
         config.setFileSizeLimit(2048 * 1024); // 2MB
         config.setFileCount(1);
         config.setLogLocation("server.log");
+        // keep disk/console I/O off the client threads; under a burst, drop INFO
+        // and below rather than stall them (warnings and errors always wait)
+        config.setAsync(true);
+        config.setOverflowPolicy(AsyncLogHandler.OverflowPolicy.DROP);
         // Set the logger configuration
         LoggerUtil.INSTANCE.setConfig(config);
     }
+    // large enough to absorb reconnect bursts (both engines bind with it)
+    static final int ACCEPT_BACKLOG = 1024;
     private int port = 3000;
+    private ServerConfig config = new ServerConfig();
     // Use ConcurrentHashMap for thread-safe room management
     private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final RoomIndex roomIndex = new RoomIndex(); // searchable names for ROOM_LIST
+    private final RoomQueryCache roomQueries = new RoomQueryCache(roomIndex);
     private boolean isRunning = true;
-    private long nextClientId = 1;
+    private final ClientRegistry clients = new ClientRegistry();
+    private final DirectMessageRouter directMessages = new DirectMessageRouter(clients);
+    private volatile ChatLog chatLog; // null when turned off
+    // physical rooms behind the logical lobby, Room.LOBBY is always the first;
+    // shards stay open once created so a joiner never lands in a closing one
+    private final List<Room> lobbyShards = new CopyOnWriteArrayList<>();
 
     private Server() {
+        clients.addListener(ServerMetrics.INSTANCE);
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             LoggerUtil.INSTANCE.info("JVM is shutting down. Perform cleanup tasks.");
             shutdown();
         }));
     }
 
-    private void start(int port) {
-        this.port = port;
+    private void start(ServerConfig config) {
+        this.config = config;
+        this.port = config.getPort();
+        LoggerUtil.INSTANCE.setLevel(config.getLogLevel());
         // server listening
         LoggerUtil.INSTANCE.info("Listening on port " + this.port);
+        LoggerUtil.INSTANCE.info("Using " + config);
+        ServerMetrics.INSTANCE.startReporter(config.getMetricsInterval());
+        RoomScheduler.INSTANCE.start(config.getRoomThreads(), config.getRoomRebalanceSeconds());
+        startHistoryEviction(config.getHistoryIdleSeconds());
+        if (config.getChatLogDir() != null) {
+            try {
+                chatLog = ChatLog.open(Path.of(config.getChatLogDir()), config.getChatLogSegmentBytes());
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.severe("Could not open the chat log, messages won't be recorded", e);
+            }
+        }
+        if (config.getEngine() == ServerConfig.Engine.NIO) {
+            startNio();
+            return;
+        }
+        // platform or virtual threads share the same blocking read loop
+        Thread.Builder clientThreads = config.getEngine() == ServerConfig.Engine.VIRTUAL
+                ? Thread.ofVirtual().name("client-", 1)
+                : Thread.ofPlatform().name("client-", 1);
         // Simplified client connection loop
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        try (ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
             createRoom(Room.LOBBY);// create the first room
             while (isRunning) {
                 LoggerUtil.INSTANCE.info("Waiting for next client");
@@ -45,10 +87,11 @@ public enum Server {
                 LoggerUtil.INSTANCE.info("Client connected");
                 // wrap socket in a ServerThread, pass a callback to notify the Server they're
                 // initialized
-                ServerThread sClient = new ServerThread(incomingClient, this::onClientInitialized);
-                // start the thread (typically an external entity manages the lifecycle and we
+                SocketConnection connection = new SocketConnection(incomingClient, config);
+                new ServerThread(connection, this::onClientInitialized);
+                // start the read loop (typically an external entity manages the lifecycle and we
                 // don't have the thread start itself)
-                sClient.start();
+                clientThreads.start(connection);
             }
         } catch (IOException e) {
             LoggerUtil.INSTANCE.severe("Error accepting connection", e);
@@ -58,7 +101,46 @@ public enum Server {
         }
     }
 
-   
+    /**
+     * Same lifecycle as start() but clients are multiplexed over a few
+     * NioEventLoops instead of getting a thread each
+     */
+    private void startNio() {
+        try {
+            createRoom(Room.LOBBY);// create the first room
+            new NioServer(config).start(port, this::onClientInitialized, () -> isRunning);
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.severe("Error accepting connection", e);
+        } finally {
+            shutdown();
+            LoggerUtil.INSTANCE.info("Closing server socket");
+        }
+    }
+
+    /**
+     * Starts a daemon thread that frees the history of rooms that went quiet
+     * 
+     * @param idleSeconds how long a room has to be quiet, 0 or less disables it
+     */
+    private void startHistoryEviction(int idleSeconds) {
+        if (idleSeconds <= 0) {
+            return;
+        }
+        long idleMillis = idleSeconds * 1000L;
+        Thread.ofPlatform().daemon().name("history-evictor").start(() -> {
+            while (isRunning) {
+                try {
+                    Thread.sleep(Math.max(1000L, idleMillis / 2));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (Room room : rooms.values()) {
+                    room.evictIdleHistory(idleMillis);
+                }
+            }
+        });
+    }
+
     /**
      * Gracefully disconnect clients
      */
@@ -67,13 +149,19 @@ public enum Server {
             // chose removeIf over forEach to avoid potential
             // ConcurrentModificationException
             // since empty rooms tell the server to remove themselves
+            List<CompletableFuture<Void>> pending = new ArrayList<>();
             rooms.values().removeIf(room -> {
-                room.disconnectAll();
+                pending.add(room.disconnectAll());
                 return true;
             });
+            // rooms disconnect on their own workers; give them a moment
+            CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
         } catch (Exception e) {
             LoggerUtil.INSTANCE.info("Error cleaning up rooms", e);
         }
+        if (chatLog != null) {
+            chatLog.close();
+        }
     }
 
     /**
@@ -83,32 +171,70 @@ public enum Server {
      * @param sClient
      */
     private void onClientInitialized(ServerThread sClient) {
-        sClient.sendClientId(nextClientId);
-        nextClientId++;
-        if (nextClientId < 0) {
-            nextClientId = 1;
-        }
+        sClient.sendClientId(clients.nextClientId());
+        clients.register(sClient);
         // add to lobby room
-        LoggerUtil.INSTANCE.info(String.format("Server: *%s[%s] initialized*",
-                sClient.getClientName(), sClient.getClientId()));
-        joinRoom(Room.LOBBY, sClient);
+        LoggerUtil.INSTANCE.info("Server: *%s[%s] initialized*", sClient.getClientName(), sClient.getClientId());
+        // a reconnecting client goes back to its room if it's still around
+        ReconnectPayload resume = sClient.getResume();
+        if (resume == null || resume.getMessage() == null || !joinRoom(resume.getMessage(), sClient)) {
+            joinRoom(Room.LOBBY, sClient);
+        }
+    }
+
+
+    /**
+     * @return every initialized client, indexed by id and name
+     */
+    protected ClientRegistry getClients() {
+        return clients;
     }
 
+    /**
+     * @return the durable record of room messages, or null if it's turned off
+     */
+    protected ChatLog getChatLog() {
+        return chatLog;
+    }
 
     /**
-     * Attempts to create a new Room and add it to the tracked rooms collection
+     * @return delivers private messages across rooms
+     */
+    protected DirectMessageRouter getDirectMessages() {
+        return directMessages;
+    }
+
+    /**
+     * Attempts to create a new Room and add it to the tracked rooms collection.
+     * The room goes into the map as CREATING (so only one caller can create
+     * it) and opens for joins once it's configured.
      * 
      * @param name Unique name of the room
      * @return true if it was created and false if it wasn't
      */
     protected boolean createRoom(String name) {
         final String nameCheck = name.toLowerCase();
-        if (rooms.containsKey(nameCheck)) {
-            return false;
+        Room[] created = new Room[1];
+        Room room = rooms.computeIfAbsent(nameCheck, key -> created[0] = new Room(name));
+        while (created[0] == null) {
+            Room.State state = room.getState();
+            if (state == Room.State.CREATING || state == Room.State.OPEN) {
+                return false;
+            }
+            // a closing room with the same name, it's on its way out of the map
+            rooms.remove(nameCheck, room);
+            room = rooms.computeIfAbsent(nameCheck, key -> created[0] = new Room(name));
+        }
+        if (Room.isLobby(name)) {
+            lobbyShards.add(room);
         }
-        Room room = new Room(name);
-        rooms.put(nameCheck, room);
-        LoggerUtil.INSTANCE.info(String.format("Created new Room %s", name));
+        room.setHistoryLimits(config.getHistoryMessages(), config.getHistoryBytes());
+        room.setPresenceBatching(config.getPresenceThreshold(), config.getPresenceWindowMillis());
+        room.setMembershipJournal(config.getMembershipJournal());
+        room.setFanoutThreshold(config.getFanoutThreshold());
+        room.open();
+        roomIndex.add(name);
+        LoggerUtil.INSTANCE.info("Created new Room %s", name);
         return true;
     }
 
@@ -121,42 +247,121 @@ public enum Server {
      */
     protected boolean joinRoom(String name, ServerThread client) {
         final String nameCheck = name.toLowerCase();
-        if (!rooms.containsKey(nameCheck)) {
-            return false;
+        if (!client.isRunning()) {
+            return false; // its cleanup may already have run, it mustn't land in a room again
+        }
+        Room next;
+        // reserve a place before leaving the current room, so re-joining the
+        // room you're in doesn't let it empty out and close underneath you
+        while (true) {
+            next = Room.LOBBY.equals(nameCheck) ? pickLobbyShard() : rooms.get(nameCheck);
+            if (next == null) {
+                return false;
+            }
+            if (next.tryAcquire()) {
+                break;
+            }
+            if (next.getState() == Room.State.CREATING) {
+                Thread.onSpinWait(); // its creator is about to open it
+            } else {
+                // lost the race with its close; once it's out of the map the
+                // name is free (or already taken by a new room)
+                rooms.remove(nameCheck, next);
+            }
         }
         Room current = client.getCurrentRoom();
+        // switched right away so the client's next payloads go to the new room
+        client.setCurrentRoom(next);
+        Room joining = next;
         if (current != null) {
-            current.removedClient(client);
+            // the join is queued only after the old room sent out the leave;
+            // the two rooms run independently, so nothing else orders them
+            current.removedClient(client, () -> joining.addClient(client));
+        } else {
+            next.addClient(client);
+        }
+        return true;
+    }
+
+    /**
+     * Picks the lobby shard with the fewest members (counting joins still on
+     * their way), adding a shard once every shard is at capacity
+     * 
+     * @return where the next lobby joiner goes
+     */
+    private Room pickLobbyShard() {
+        int capacity = config.getLobbyCapacity();
+        if (capacity <= 0 || lobbyShards.isEmpty()) {
+            return rooms.get(Room.LOBBY);
+        }
+        synchronized (lobbyShards) {
+            Room best = lobbyShards.get(0);
+            for (Room shard : lobbyShards) {
+                if (shard.getOccupancy() < best.getOccupancy()) {
+                    best = shard;
+                }
+            }
+            if (best.getOccupancy() >= capacity) {
+                String name = String.format("%s-%s", Room.LOBBY, lobbyShards.size() + 1);
+                createRoom(name);
+                best = rooms.get(name);
+                LoggerUtil.INSTANCE.info("Every lobby shard is at %s members, opened %s", capacity, name);
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Sends a message to every lobby shard instead of only the sender's,
+     * for when something really is meant for everyone
+     * 
+     * @param sender  a client in one of the lobby shards
+     * @param message
+     * @return false if the sender isn't in the lobby
+     */
+    protected boolean announceToLobby(ServerThread sender, String message) {
+        Room from = sender.getCurrentRoom();
+        if (from == null || !lobbyShards.contains(from)) {
+            return false;
+        }
+        for (Room shard : lobbyShards) {
+            // the other shards don't know the sender, so the name goes in the text
+            shard.sendMessage(sender, shard == from ? "[to every lobby] " + message
+                    : String.format("[%s in %s] %s", sender.getClientName(), from.getName(), message));
         }
-        Room next = rooms.get(nameCheck);
-        next.addClient(client);
         return true;
     }
 
-    protected List<String> listRooms(String roomQuery) {
-        final String nameCheck = roomQuery.toLowerCase();
-        return rooms.values().stream()
-                .filter(room -> room.getName().toLowerCase().contains(nameCheck))// find partially matched rooms
-                .map(room -> room.getName())// map room to String (name)
-                .collect(Collectors.toList()); // return a mutable list
+    /**
+     * Searches room names, prefix matches first, then other partial matches.
+     * Identical searches share one result until a room is created or removed.
+     * 
+     * @param roomQuery text the names should contain (case-insensitive)
+     * @param limit     page size, 0 for the default
+     * @param cursor    from the previous page, null for the first one
+     * @return one page of matching room names
+     */
+    protected RoomIndex.Page listRooms(String roomQuery, int limit, String cursor) {
+        return roomQueries.search(roomQuery, limit, cursor);
     }
 
     protected void removeRoom(Room room) {
-        rooms.remove(room.getName().toLowerCase());
-        LoggerUtil.INSTANCE.info(String.format("Server removed room %s", room.getName()));
+        String nameCheck = room.getName().toLowerCase();
+        // only this instance, a new room may already be using the name (a
+        // join that lost the race with the close may also have removed it)
+        rooms.remove(nameCheck, room);
+        roomIndex.remove(room.getName());
+        if (rooms.containsKey(nameCheck)) {
+            roomIndex.add(room.getName()); // recreated while we were removing it
+        }
+        LoggerUtil.INSTANCE.info("Server removed room %s", room.getName());
     }
 
     public static void main(String[] args) {
         LoggerUtil.INSTANCE.info("Server Starting");
         Server server = Server.INSTANCE;
-        int port = 3000;
-        try {
-            port = Integer.parseInt(args[0]);
-        } catch (Exception e) {
-            // can ignore, will either be index out of bounds or type mismatch
-            // will default to the defined value prior to the try/catch
-        }
-        server.start(port);
+        // port is still the first argument, engine flags (i.e., --engine=nio) are optional
+        server.start(ServerConfig.fromArgs(args));
         LoggerUtil.INSTANCE.info("Server Stopped");
     }
 }
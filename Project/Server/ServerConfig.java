@@ -0,0 +1,615 @@
+package Project.Server;
+
+import java.util.logging.Level;
+
+import Project.Common.PayloadCodec;
+import Project.Common.PayloadFraming;
+import Project.Common.ResettingObjectOutputStream;
+import Project.Common.SerializedPayloadCodec;
+
+/**
+ * Startup settings for the Server.
+ * Values are parsed from the command line, for example:
+ * <pre>java Project.Server.Server 3000 --engine=nio --io-threads=4 --codecs=binary,serialization
+ *     --outbound-capacity=1024 --outbound-policy=summary --metrics-interval=60
+ *     --wire=stream --stream-reset-bytes=1048576 --stream-reset-objects=10000 --log-level=warning
+ *     --history-messages=50 --history-bytes=65536 --history-idle=600
+ *     --chat-log=chatlog --chat-log-segment-bytes=67108864 --presence-threshold=50 --presence-window=100
+ *     --membership-journal=4096 --room-threads=4 --room-rebalance=10 --fanout-threshold=2000
+ *     --lobby-capacity=5000</pre>
+ */
+public class ServerConfig {
+    public static final int DEFAULT_HISTORY_MESSAGES = 50;
+    public static final long DEFAULT_HISTORY_BYTES = 64 * 1024;
+    public static final int DEFAULT_PRESENCE_THRESHOLD = 50;
+    public static final long DEFAULT_PRESENCE_WINDOW_MILLIS = 100;
+    public static final int DEFAULT_MEMBERSHIP_JOURNAL = 4096;
+    public static final int DEFAULT_FANOUT_THRESHOLD = 2000;
+    public static final int DEFAULT_LOBBY_CAPACITY = 5000;
+
+    /**
+     * Strategy used to service client connections
+     */
+    public enum Engine {
+        THREAD, // one platform thread per client blocking on the socket (original behavior)
+        VIRTUAL, // one virtual thread per client blocking on the socket
+        NIO, // a small fixed set of Selector event loops shared by all clients
+    }
+
+    /**
+     * What the blocking engines put on the socket
+     */
+    public enum Wire {
+        FRAMED, // length-prefixed frames with a codec negotiated at connect time
+        STREAM, // a single long-lived ObjectOutputStream (legacy, blocking engines only)
+    }
+
+    private int port = 3000;
+    private Engine engine = Engine.THREAD;
+    private Wire wire = Wire.FRAMED;
+    private int codecBits = PayloadFraming.allCodecBits();
+    private int ioThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private int outboundCapacity = 1024;
+    private OutboundQueue.Policy outboundPolicy = OutboundQueue.Policy.DROP_OLDEST;
+    private int metricsInterval = 60;
+    private long streamResetBytes = ResettingObjectOutputStream.DEFAULT_BYTE_BUDGET;
+    private int streamResetObjects = ResettingObjectOutputStream.DEFAULT_OBJECT_BUDGET;
+    private Level logLevel = Level.ALL;
+    private int historyMessages = DEFAULT_HISTORY_MESSAGES;
+    private long historyBytes = DEFAULT_HISTORY_BYTES;
+    private int historyIdleSeconds = 600;
+    private String chatLogDir = "chatlog";
+    private int chatLogSegmentBytes = ChatLog.DEFAULT_SEGMENT_BYTES;
+    private int presenceThreshold = DEFAULT_PRESENCE_THRESHOLD;
+    private long presenceWindowMillis = DEFAULT_PRESENCE_WINDOW_MILLIS;
+    private int membershipJournal = DEFAULT_MEMBERSHIP_JOURNAL;
+    private int roomThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private int roomRebalanceSeconds = 10;
+    private int fanoutThreshold = DEFAULT_FANOUT_THRESHOLD;
+    private int lobbyCapacity = DEFAULT_LOBBY_CAPACITY;
+
+    /**
+     * Builds a config from the program arguments.
+     * The first bare number is treated as the port, flags use the form
+     * <code>--name=value</code>. Unknown or malformed values keep the default.
+     *
+     * @param args program arguments
+     * @return the parsed config
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        if (args == null) {
+            return config;
+        }
+        for (String arg : args) {
+            try {
+                if (!arg.startsWith("--")) {
+                    config.setPort(Integer.parseInt(arg));
+                    continue;
+                }
+                String[] parts = arg.substring(2).split("=", 2);
+                String value = parts.length > 1 ? parts[1].trim() : "";
+                switch (parts[0].toLowerCase()) {
+                    case "engine":
+                        config.setEngine(Engine.valueOf(value.toUpperCase()));
+                        break;
+                    case "io-threads":
+                        config.setIoThreads(Integer.parseInt(value));
+                        break;
+                    case "wire":
+                        config.setWire(Wire.valueOf(value.toUpperCase()));
+                        break;
+                    case "codecs":
+                        int bits = 0;
+                        for (String name : value.split(",")) {
+                            PayloadCodec codec = PayloadFraming.forName(name.trim());
+                            if (codec != null) {
+                                bits |= PayloadFraming.bitFor(codec);
+                            }
+                        }
+                        config.setCodecBits(bits);
+                        break;
+                    case "outbound-capacity":
+                        config.setOutboundCapacity(Integer.parseInt(value));
+                        break;
+                    case "outbound-policy":
+                        config.setOutboundPolicy(OutboundQueue.Policy.valueOf(value.toUpperCase().replace('-', '_')));
+                        break;
+                    case "metrics-interval":
+                        config.setMetricsInterval(Integer.parseInt(value));
+                        break;
+                    case "stream-reset-bytes":
+                        config.setStreamResetBytes(Long.parseLong(value));
+                        break;
+                    case "stream-reset-objects":
+                        config.setStreamResetObjects(Integer.parseInt(value));
+                        break;
+                    case "history-messages":
+                        config.setHistoryMessages(Integer.parseInt(value));
+                        break;
+                    case "history-bytes":
+                        config.setHistoryBytes(Long.parseLong(value));
+                        break;
+                    case "history-idle":
+                        config.setHistoryIdleSeconds(Integer.parseInt(value));
+                        break;
+                    case "chat-log":
+                        config.setChatLogDir(value);
+                        break;
+                    case "chat-log-segment-bytes":
+                        config.setChatLogSegmentBytes(Integer.parseInt(value));
+                        break;
+                    case "presence-threshold":
+                        config.setPresenceThreshold(Integer.parseInt(value));
+                        break;
+                    case "presence-window":
+                        config.setPresenceWindowMillis(Long.parseLong(value));
+                        break;
+                    case "membership-journal":
+                        config.setMembershipJournal(Integer.parseInt(value));
+                        break;
+                    case "room-threads":
+                        config.setRoomThreads(Integer.parseInt(value));
+                        break;
+                    case "room-rebalance":
+                        config.setRoomRebalanceSeconds(Integer.parseInt(value));
+                        break;
+                    case "fanout-threshold":
+                        config.setFanoutThreshold(Integer.parseInt(value));
+                        break;
+                    case "lobby-capacity":
+                        config.setLobbyCapacity(Integer.parseInt(value));
+                        break;
+                    case "log-level":
+                        config.setLogLevel(Level.parse(value.toUpperCase()));
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                // can ignore, will default to the defined value
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Sets the port the server listens on.
+     *
+     * @param port the port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Gets the connection engine.
+     *
+     * @return the engine
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the connection engine.
+     *
+     * @param engine the engine
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Gets the number of event loop threads used by the NIO engine.
+     *
+     * @return the number of event loops
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Sets the number of event loop threads used by the NIO engine.
+     *
+     * @param ioThreads the number of event loops (minimum of 1)
+     */
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = Math.max(1, ioThreads);
+    }
+
+    /**
+     * Gets the wire format used by the blocking engines (NIO is always framed).
+     *
+     * @return the wire format
+     */
+    public Wire getWire() {
+        return engine == Engine.NIO ? Wire.FRAMED : wire;
+    }
+
+    /**
+     * Sets the wire format used by the blocking engines.
+     *
+     * @param wire the wire format
+     */
+    public void setWire(Wire wire) {
+        this.wire = wire;
+    }
+
+    /**
+     * Gets the codecs offered to clients during the framed handshake.
+     *
+     * @return bit set of codec ids
+     */
+    public int getCodecBits() {
+        return codecBits;
+    }
+
+    /**
+     * Sets the codecs offered to clients during the framed handshake.
+     * Java serialization is always offered as the fallback.
+     *
+     * @param codecBits bit set of codec ids
+     */
+    public void setCodecBits(int codecBits) {
+        this.codecBits = codecBits | PayloadFraming.bitFor(SerializedPayloadCodec.INSTANCE);
+    }
+
+    /**
+     * Gets the max number of payloads queued for a single client.
+     *
+     * @return the outbound queue capacity
+     */
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    /**
+     * Sets the max number of payloads queued for a single client.
+     *
+     * @param outboundCapacity the outbound queue capacity (minimum of 1)
+     */
+    public void setOutboundCapacity(int outboundCapacity) {
+        this.outboundCapacity = Math.max(1, outboundCapacity);
+    }
+
+    /**
+     * Gets what happens when a client's outbound queue is full.
+     *
+     * @return the overflow policy
+     */
+    public OutboundQueue.Policy getOutboundPolicy() {
+        return outboundPolicy;
+    }
+
+    /**
+     * Sets what happens when a client's outbound queue is full.
+     *
+     * @param outboundPolicy the overflow policy
+     */
+    public void setOutboundPolicy(OutboundQueue.Policy outboundPolicy) {
+        this.outboundPolicy = outboundPolicy;
+    }
+
+    /**
+     * Gets the seconds between metric log lines.
+     *
+     * @return the interval, 0 means disabled
+     */
+    public int getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    /**
+     * Sets the seconds between metric log lines.
+     *
+     * @param metricsInterval the interval, 0 or less disables it
+     */
+    public void setMetricsInterval(int metricsInterval) {
+        this.metricsInterval = Math.max(0, metricsInterval);
+    }
+
+    /**
+     * Gets the bytes a stream wire connection writes before resetting its
+     * ObjectOutputStream.
+     *
+     * @return the byte budget, 0 means never
+     */
+    public long getStreamResetBytes() {
+        return streamResetBytes;
+    }
+
+    /**
+     * Sets the bytes a stream wire connection writes before resetting its
+     * ObjectOutputStream.
+     *
+     * @param streamResetBytes the byte budget, 0 or less means never
+     */
+    public void setStreamResetBytes(long streamResetBytes) {
+        this.streamResetBytes = Math.max(0, streamResetBytes);
+    }
+
+    /**
+     * Gets the objects a stream wire connection writes before resetting its
+     * ObjectOutputStream.
+     *
+     * @return the object budget, 0 means never
+     */
+    public int getStreamResetObjects() {
+        return streamResetObjects;
+    }
+
+    /**
+     * Sets the objects a stream wire connection writes before resetting its
+     * ObjectOutputStream.
+     *
+     * @param streamResetObjects the object budget, 0 or less means never
+     */
+    public void setStreamResetObjects(int streamResetObjects) {
+        this.streamResetObjects = Math.max(0, streamResetObjects);
+    }
+
+    /**
+     * Gets the lowest level the server logs at.
+     *
+     * @return the log level
+     */
+    public Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * Sets the lowest level the server logs at. Messages below it are skipped
+     * before they're formatted.
+     *
+     * @param logLevel the log level
+     */
+    public void setLogLevel(Level logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    /**
+     * Gets how many recent messages each room keeps for joiners.
+     *
+     * @return the message count, 0 means no history
+     */
+    public int getHistoryMessages() {
+        return historyMessages;
+    }
+
+    /**
+     * Sets how many recent messages each room keeps for joiners.
+     *
+     * @param historyMessages the message count, 0 or less means no history
+     */
+    public void setHistoryMessages(int historyMessages) {
+        this.historyMessages = Math.max(0, historyMessages);
+    }
+
+    /**
+     * Gets the approximate memory each room's history may use.
+     *
+     * @return the byte budget
+     */
+    public long getHistoryBytes() {
+        return historyBytes;
+    }
+
+    /**
+     * Sets the approximate memory each room's history may use.
+     *
+     * @param historyBytes the byte budget
+     */
+    public void setHistoryBytes(long historyBytes) {
+        this.historyBytes = Math.max(0, historyBytes);
+    }
+
+    /**
+     * Gets how long a room has to be quiet before its history is freed.
+     *
+     * @return the idle time in seconds, 0 means never
+     */
+    public int getHistoryIdleSeconds() {
+        return historyIdleSeconds;
+    }
+
+    /**
+     * Sets how long a room has to be quiet before its history is freed.
+     *
+     * @param historyIdleSeconds the idle time in seconds, 0 or less means never
+     */
+    public void setHistoryIdleSeconds(int historyIdleSeconds) {
+        this.historyIdleSeconds = Math.max(0, historyIdleSeconds);
+    }
+
+    /**
+     * Gets the directory the chat log is written to.
+     *
+     * @return the directory, or null if the chat log is off
+     */
+    public String getChatLogDir() {
+        return chatLogDir;
+    }
+
+    /**
+     * Sets the directory the chat log is written to.
+     *
+     * @param chatLogDir the directory, empty or "off" turns the chat log off
+     */
+    public void setChatLogDir(String chatLogDir) {
+        this.chatLogDir = chatLogDir == null || chatLogDir.isEmpty() || chatLogDir.equalsIgnoreCase("off") ? null
+                : chatLogDir;
+    }
+
+    /**
+     * Gets the size of each chat log segment file.
+     *
+     * @return the segment size in bytes
+     */
+    public int getChatLogSegmentBytes() {
+        return chatLogSegmentBytes;
+    }
+
+    /**
+     * Sets the size of each chat log segment file.
+     *
+     * @param chatLogSegmentBytes the segment size in bytes, at least 64KB
+     */
+    public void setChatLogSegmentBytes(int chatLogSegmentBytes) {
+        this.chatLogSegmentBytes = Math.max(64 * 1024, chatLogSegmentBytes);
+    }
+
+    /**
+     * Gets the room size above which joins and leaves are batched.
+     *
+     * @return the member count
+     */
+    public int getPresenceThreshold() {
+        return presenceThreshold;
+    }
+
+    /**
+     * Sets the room size above which joins and leaves are batched.
+     *
+     * @param presenceThreshold the member count, 0 batches every room
+     */
+    public void setPresenceThreshold(int presenceThreshold) {
+        this.presenceThreshold = Math.max(0, presenceThreshold);
+    }
+
+    /**
+     * Gets how long joins and leaves are collected before a delta goes out.
+     *
+     * @return the window in milliseconds
+     */
+    public long getPresenceWindowMillis() {
+        return presenceWindowMillis;
+    }
+
+    /**
+     * Sets how long joins and leaves are collected before a delta goes out.
+     *
+     * @param presenceWindowMillis the window in milliseconds, at least 1
+     */
+    public void setPresenceWindowMillis(long presenceWindowMillis) {
+        this.presenceWindowMillis = Math.max(1, presenceWindowMillis);
+    }
+
+    /**
+     * Gets how many joins and leaves each room remembers for reconnecting
+     * clients.
+     *
+     * @return the number of changes
+     */
+    public int getMembershipJournal() {
+        return membershipJournal;
+    }
+
+    /**
+     * Sets how many joins and leaves each room remembers for reconnecting
+     * clients; older versions get a full snapshot.
+     *
+     * @param membershipJournal the number of changes, 0 always sends snapshots
+     */
+    public void setMembershipJournal(int membershipJournal) {
+        this.membershipJournal = Math.max(0, membershipJournal);
+    }
+
+    /**
+     * Gets the number of worker threads rooms are spread across.
+     *
+     * @return the number of room workers
+     */
+    public int getRoomThreads() {
+        return roomThreads;
+    }
+
+    /**
+     * Sets the number of worker threads rooms are spread across.
+     *
+     * @param roomThreads the number of room workers (minimum of 1)
+     */
+    public void setRoomThreads(int roomThreads) {
+        this.roomThreads = Math.max(1, roomThreads);
+    }
+
+    /**
+     * Gets how often the busiest room worker may hand a room to the idlest.
+     *
+     * @return the interval in seconds
+     */
+    public int getRoomRebalanceSeconds() {
+        return roomRebalanceSeconds;
+    }
+
+    /**
+     * Sets how often the busiest room worker may hand a room to the idlest.
+     *
+     * @param roomRebalanceSeconds the interval, 0 or less disables it
+     */
+    public void setRoomRebalanceSeconds(int roomRebalanceSeconds) {
+        this.roomRebalanceSeconds = Math.max(0, roomRebalanceSeconds);
+    }
+
+    /**
+     * Gets the room size above which broadcasts are sent in parallel slices.
+     *
+     * @return the member count
+     */
+    public int getFanoutThreshold() {
+        return fanoutThreshold;
+    }
+
+    /**
+     * Sets the room size above which broadcasts are sent in parallel slices.
+     *
+     * @param fanoutThreshold the member count, 0 turns it off
+     */
+    public void setFanoutThreshold(int fanoutThreshold) {
+        this.fanoutThreshold = Math.max(0, fanoutThreshold);
+    }
+
+    /**
+     * Gets how many members a lobby shard takes before another one opens.
+     *
+     * @return the member count
+     */
+    public int getLobbyCapacity() {
+        return lobbyCapacity;
+    }
+
+    /**
+     * Sets how many members a lobby shard takes before another one opens.
+     *
+     * @param lobbyCapacity the member count, 0 keeps a single lobby
+     */
+    public void setLobbyCapacity(int lobbyCapacity) {
+        this.lobbyCapacity = Math.max(0, lobbyCapacity);
+    }
+
+    /**
+     * @return a new outbound queue using the configured capacity and policy
+     */
+    protected OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(outboundCapacity, outboundPolicy);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "ServerConfig[port=%s, engine=%s, ioThreads=%s, wire=%s, codecBits=%s, outbound=%s/%s, metricsInterval=%s, logLevel=%s, history=%s/%s/%ss, chatLog=%s, presence=%s/%sms, membershipJournal=%s, roomThreads=%s, roomRebalance=%ss, fanoutThreshold=%s, lobbyCapacity=%s]",
+                port, engine, ioThreads, getWire(), Integer.toBinaryString(codecBits), outboundCapacity,
+                outboundPolicy, metricsInterval, logLevel, historyMessages, historyBytes, historyIdleSeconds,
+                chatLogDir, presenceThreshold, presenceWindowMillis, membershipJournal, roomThreads,
+                roomRebalanceSeconds, fanoutThreshold, lobbyCapacity);
+    }
+}
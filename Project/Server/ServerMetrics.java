@@ -0,0 +1,189 @@
+package Project.Server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Server-wide counters.
+ * Cheap enough to update on every send; {@link #snapshot()} is what gets
+ * logged periodically (see ServerConfig's metrics interval).
+ */
+public enum ServerMetrics implements ClientRegistry.Listener {
+    INSTANCE;
+
+    // clients
+    private final LongAdder onlineClients = new LongAdder();
+    // outbound queues
+    private final LongAdder queuedPayloads = new LongAdder(); // current total depth across connections
+    private final AtomicLong maxQueueDepth = new AtomicLong(); // deepest single queue seen
+    private final LongAdder droppedPayloads = new LongAdder();
+    private final LongAdder summarizedQueues = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+    // object streams (stream wire only)
+    private final LongAdder retainedHandles = new LongAdder(); // current total across connections
+    private final LongAdder streamResets = new LongAdder();
+    // chat log
+    private final LongAdder chatLogDropped = new LongAdder();
+
+    @Override
+    public void onConnect(ServerThread client) {
+        onlineClients.increment();
+    }
+
+    @Override
+    public void onDisconnect(ServerThread client) {
+        onlineClients.decrement();
+    }
+
+    protected void onEnqueued(int depth) {
+        queuedPayloads.increment();
+        long max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+            // retry
+        }
+    }
+
+    protected void onDequeued(int count) {
+        queuedPayloads.add(-count);
+    }
+
+    protected void onDropped(int count) {
+        droppedPayloads.add(count);
+    }
+
+    protected void onSummarized() {
+        summarizedQueues.increment();
+    }
+
+    protected void onSlowConsumerDisconnect() {
+        slowConsumerDisconnects.increment();
+    }
+
+    protected void onRetainedHandles(long delta) {
+        retainedHandles.add(delta);
+    }
+
+    protected void onStreamReset() {
+        streamResets.increment();
+    }
+
+    protected void onChatLogDropped(int count) {
+        chatLogDropped.add(count);
+    }
+
+    /**
+     * Gets the number of initialized clients.
+     *
+     * @return the online count
+     */
+    public long getOnlineClients() {
+        return onlineClients.sum();
+    }
+
+    /**
+     * Gets the number of payloads waiting in all outbound queues.
+     *
+     * @return the current total queue depth
+     */
+    public long getQueuedPayloads() {
+        return queuedPayloads.sum();
+    }
+
+    /**
+     * Gets the deepest any single outbound queue has been.
+     *
+     * @return the high watermark
+     */
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Gets the number of payloads dropped by a full outbound queue.
+     *
+     * @return the drop count
+     */
+    public long getDroppedPayloads() {
+        return droppedPayloads.sum();
+    }
+
+    /**
+     * Gets the number of times a full queue was collapsed into a summary.
+     *
+     * @return the summary count
+     */
+    public long getSummarizedQueues() {
+        return summarizedQueues.sum();
+    }
+
+    /**
+     * Gets the number of clients disconnected for not keeping up.
+     *
+     * @return the disconnect count
+     */
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+
+    /**
+     * Gets the objects held by the handle tables of every open object stream.
+     *
+     * @return the retained handle count
+     */
+    public long getRetainedHandles() {
+        return retainedHandles.sum();
+    }
+
+    /**
+     * Gets the number of object stream resets.
+     *
+     * @return the reset count
+     */
+    public long getStreamResets() {
+        return streamResets.sum();
+    }
+
+    /**
+     * Gets the number of messages the chat log couldn't keep up with or write.
+     *
+     * @return the dropped record count
+     */
+    public long getChatLogDropped() {
+        return chatLogDropped.sum();
+    }
+
+    /**
+     * @return a one line summary of every counter
+     */
+    public String snapshot() {
+        return String.format(
+                "Metrics[online=%s, queued=%s, maxQueueDepth=%s, dropped=%s, summarized=%s, slowDisconnects=%s, retainedHandles=%s, streamResets=%s, logDropped=%s, chatLogDropped=%s]",
+                getOnlineClients(), getQueuedPayloads(), getMaxQueueDepth(), getDroppedPayloads(), getSummarizedQueues(),
+                getSlowConsumerDisconnects(), getRetainedHandles(), getStreamResets(),
+                LoggerUtil.INSTANCE.getDroppedCount(), getChatLogDropped());
+    }
+
+    /**
+     * Starts a daemon thread that logs {@link #snapshot()} on an interval
+     *
+     * @param intervalSeconds seconds between logs, 0 or less disables it
+     */
+    protected void startReporter(int intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        Thread.ofPlatform().daemon().name("metrics").start(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalSeconds * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                LoggerUtil.INSTANCE.info(this::snapshot);
+                LoggerUtil.INSTANCE.info(RoomScheduler.INSTANCE::snapshot);
+            }
+        });
+    }
+}
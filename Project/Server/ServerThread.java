@@ -1,17 +1,20 @@
 package Project.Server;
 import java.io.IOException;
-import java.net.Socket;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Consumer;
 import Project.Common.PayloadType;
+import Project.Common.RoomQueryPayload;
 import Project.Common.RoomResultsPayload;
+import Project.Common.RoomSnapshotPayload;
+import Project.Common.SearchResultsPayload;
 import Project.Common.Payload;
 import Project.Common.RollPayload;
 import Project.Common.FlipPayload;
 import Project.Common.ConnectionPayload;
+import Project.Common.ReconnectPayload;
 import Project.Common.LoggerUtil;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -25,28 +28,27 @@ import java.io.FileWriter;
  */
 public class ServerThread extends BaseServerThread {
     public static final long DEFAULT_CLIENT_ID = -1;
-    private Room currentRoom;
+    private volatile Room currentRoom;
     private long clientId;
     private String clientName;
     private Consumer<ServerThread> onInitializationComplete; // callback to inform when this object is ready
     private Set<String> muteList = new HashSet<>();
+    private ReconnectPayload resume; // where a reconnecting client left off, until its room syncs it
 
     /**
-     * Wraps the Socket connection and takes a Server reference and a callback
+     * Wraps the client's Connection and takes a callback
      * 
-     * @param myClient
-     * @param server
+     * @param connection               blocking socket or non-blocking channel
      * @param onInitializationComplete method to inform listener that this object is
      *                                 ready
      */
-    protected ServerThread(Socket myClient, Consumer<ServerThread> onInitializationComplete) {
-        Objects.requireNonNull(myClient, "Client socket cannot be null");
+    protected ServerThread(Connection connection, Consumer<ServerThread> onInitializationComplete) {
+        Objects.requireNonNull(connection, "Connection cannot be null");
         Objects.requireNonNull(onInitializationComplete, "callback cannot be null");
         info("ServerThread created");
-        // get communication channels to single client
-        this.client = myClient;
         this.clientId = ServerThread.DEFAULT_CLIENT_ID;// this is updated later by the server
         this.onInitializationComplete = onInitializationComplete;
+        attach(connection);
         loadMuteList();
     }
 
@@ -82,6 +84,22 @@ public class ServerThread extends BaseServerThread {
         currentRoom = room;
     }
 
+    /**
+     * @return where a reconnecting client left off, or null
+     */
+    protected ReconnectPayload getResume() {
+        return resume;
+    }
+
+    /**
+     * @return where a reconnecting client left off (only once), or null
+     */
+    protected ReconnectPayload takeResume() {
+        ReconnectPayload taken = resume;
+        resume = null;
+        return taken;
+    }
+
     @Override
     protected void onInitialized() {
         loadMuteList();
@@ -90,15 +108,30 @@ public class ServerThread extends BaseServerThread {
 
     @Override
     protected void info(String message) {
-        LoggerUtil.INSTANCE.info(String.format("ServerThread[%s(%s)]: %s", getClientName(), getClientId(), message));
+        LoggerUtil.INSTANCE.info("ServerThread[%s(%s)]: %s", getClientName(), getClientId(), message);
     }
 
     @Override
     protected void cleanup() {
         currentRoom = null;
+        Server.INSTANCE.getClients().unregister(this);
         super.cleanup();
     }
 
+    /**
+     * The connection dropped without a DISCONNECT payload (or a write failed
+     * in the background), so let the Room tell the others and free the slot
+     */
+    @Override
+    protected void onConnectionClosed() {
+        Room room = currentRoom;
+        if (isRunning && room != null) {
+            info("Connection lost, leaving Room %s", room.getName());
+            room.disconnect(this);
+        }
+        super.onConnectionClosed();
+    }
+
     @Override
     protected void disconnect() {
         saveMuteList();
@@ -113,11 +146,15 @@ public class ServerThread extends BaseServerThread {
             switch (payload.getPayloadType()) {
                 case CLIENT_CONNECT:
                     ConnectionPayload cp = (ConnectionPayload) payload;
+                    if (cp instanceof ReconnectPayload) {
+                        resume = (ReconnectPayload) cp;
+                    }
                     setClientName(cp.getClientName());
                     break;
                 case MESSAGE:
                 if (payload.isPrivate()) {
-                    currentRoom.handlePrivateMessage(this, payload);
+                    // @name reaches the user in any room
+                    Server.INSTANCE.getDirectMessages().send(this, payload.getTargetUsername(), payload.getMessage());
                 } else {
                     currentRoom.sendMessage(this, payload.getMessage());
                 }
@@ -129,7 +166,13 @@ public class ServerThread extends BaseServerThread {
                     currentRoom.handleJoinRoom(this, payload.getMessage());
                     break;
                 case ROOM_LIST:
-                    currentRoom.handleListRooms(this, payload.getMessage());
+                    if (payload instanceof RoomQueryPayload) {
+                        RoomQueryPayload query = (RoomQueryPayload) payload;
+                        currentRoom.handleListRooms(this, query.getMessage(), query.getLimit(), query.getCursor());
+                    } else {
+                        // older clients: first page at the default size
+                        currentRoom.handleListRooms(this, payload.getMessage(), 0, null);
+                    }
                     break;
                 case DISCONNECT:
                     currentRoom.disconnect(this);
@@ -154,6 +197,12 @@ public class ServerThread extends BaseServerThread {
                 case UNMUTE:
                     currentRoom.handleUnmute(this, payload);
                     break;
+                case SEARCH:
+                    currentRoom.handleSearch(this, payload.getMessage());
+                    break;
+                case ANNOUNCE:
+                    currentRoom.handleAnnounce(this, payload.getMessage());
+                    break;
                 default:
                     break;
             }
@@ -182,7 +231,7 @@ public class ServerThread extends BaseServerThread {
                     muteList.add(line);
                 }
                 //Log mute list has been successfully loaded
-                LoggerUtil.INSTANCE.info("Mute list loaded for client: " + getClientName());
+                LoggerUtil.INSTANCE.info("Mute list loaded for client: %s", getClientName());
                 //Log error message if an IOException occurs while loading the file
             } catch (IOException e) {
                 LoggerUtil.INSTANCE.severe("Encountered issue attempting to load mute list for client: " + getClientName(), e);
@@ -198,7 +247,7 @@ public class ServerThread extends BaseServerThread {
                 writer.newLine();
             }
             // Log that the mute list has been successfully saved
-            LoggerUtil.INSTANCE.info("Mute list saved for client: " + getClientName());
+            LoggerUtil.INSTANCE.info("Mute list saved for client: %s", getClientName());
             // Log an error message if an IOException occurs while saving the file
         } catch (IOException e) {
             LoggerUtil.INSTANCE.severe("Encountered issue attempting to save mute list for client: " + getClientName(), e);
@@ -230,12 +279,50 @@ public class ServerThread extends BaseServerThread {
 
     // send methods to pass data back to the Client
 
-    public boolean sendRooms(List<String> rooms) {
+    /**
+     * Sends one page of room search results
+     * 
+     * @param rooms
+     * @param cursor where the next page starts, null if this is the last one
+     * @return @see {@link #send(Payload)}
+     */
+    public boolean sendRooms(List<String> rooms, String cursor) {
         RoomResultsPayload rrp = new RoomResultsPayload();
         rrp.setRooms(rooms);
+        rrp.setCursor(cursor);
         return send(rrp);
     }
 
+    /**
+     * Sends one chunk of a room's member list, or the changes since a
+     * reconnecting client's version
+     * 
+     * @param snapshot
+     * @return true if it was queued
+     */
+    public boolean sendRoomSnapshot(RoomSnapshotPayload snapshot) {
+        return send(snapshot);
+    }
+
+    /**
+     * Sends /search results, naming the senders that are still online
+     * 
+     * @param query   the query as the client typed it
+     * @param records matches, newest first
+     * @return true if the results were queued
+     */
+    public boolean sendSearchResults(String query, List<ChatLog.Record> records) {
+        SearchResultsPayload srp = new SearchResultsPayload();
+        srp.setMessage(query);
+        ClientRegistry clients = Server.INSTANCE.getClients();
+        for (ChatLog.Record record : records) {
+            ServerThread sender = clients.findById(record.getSenderId());
+            srp.add(record.getTimestamp(), record.getRoom(), record.getSenderId(),
+                    sender == null ? null : sender.getClientName(), record.getMessage());
+        }
+        return send(srp);
+    }
+
     public boolean sendClientSync(long clientId, String clientName) {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setClientId(clientId);
@@ -263,12 +350,25 @@ public class ServerThread extends BaseServerThread {
      * @return @see {@link #send(Payload)}
      */
     public boolean sendMessage(long senderId, String message, boolean isPrivate) {
+        return send(buildMessage(senderId, message, isPrivate));
+    }
+
+    /**
+     * Builds the Payload used by {@link #sendMessage(long, String, boolean)} so
+     * a Room can encode it once for all recipients
+     * 
+     * @param senderId
+     * @param message
+     * @param isPrivate
+     * @return the message payload
+     */
+    protected static Payload buildMessage(long senderId, String message, boolean isPrivate) {
         Payload p = new Payload();
         p.setClientId(senderId);
         p.setMessage(message);
         p.setPayloadType(PayloadType.MESSAGE);
         p.setPrivate(isPrivate);
-        return send(p);
+        return p;
     }
 
     /**
@@ -281,13 +381,28 @@ public class ServerThread extends BaseServerThread {
      * @return success of sending the payload
      */
     public boolean sendRoomAction(long clientId, String clientName, String room, boolean isJoin) {
+        return send(buildRoomAction(clientId, clientName, room, isJoin));
+    }
+
+    /**
+     * Builds the Payload used by
+     * {@link #sendRoomAction(long, String, String, boolean)}
+     * 
+     * @param clientId
+     * @param clientName
+     * @param room
+     * @param isJoin
+     * @return the room action payload
+     */
+    protected static ConnectionPayload buildRoomAction(long clientId, String clientName, String room,
+            boolean isJoin) {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setPayloadType(PayloadType.ROOM_JOIN);
         cp.setConnect(isJoin); // <-- determine if join or leave
         cp.setMessage(room);
         cp.setClientId(clientId);
         cp.setClientName(clientName);
-        return send(cp);
+        return cp;
     }
 
     /**
@@ -298,12 +413,23 @@ public class ServerThread extends BaseServerThread {
      * @return success of sending the payload
      */
     public boolean sendDisconnect(long clientId, String clientName) {
+        return send(buildDisconnect(clientId, clientName));
+    }
+
+    /**
+     * Builds the Payload used by {@link #sendDisconnect(long, String)}
+     * 
+     * @param clientId
+     * @param clientName
+     * @return the disconnect payload
+     */
+    protected static ConnectionPayload buildDisconnect(long clientId, String clientName) {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setPayloadType(PayloadType.DISCONNECT);
         cp.setConnect(false);
         cp.setClientId(clientId);
         cp.setClientName(clientName);
-        return send(cp);
+        return cp;
     }
 
     /**
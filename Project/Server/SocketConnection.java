@@ -0,0 +1,265 @@
+package Project.Server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import Project.Common.EncodedPayload;
+import Project.Common.LoggerUtil;
+import Project.Common.Payload;
+import Project.Common.PayloadCodec;
+import Project.Common.PayloadFraming;
+import Project.Common.ResettingObjectOutputStream;
+
+/**
+ * Blocking Connection over a plain Socket.
+ * <p>
+ * {@link #run()} is the read loop that used to live in BaseServerThread. It's
+ * meant to be started on its own thread, either a platform thread or a virtual
+ * thread, depending on the configured engine.
+ * </p>
+ * <p>
+ * Speaks either the framed protocol (codec negotiated in the handshake) or the
+ * legacy single ObjectOutputStream, depending on the configured wire.
+ * </p>
+ * <p>
+ * Sends only enqueue into a bounded OutboundQueue. A writer (a virtual thread
+ * started when there's something to write) drains it, so a slow client never
+ * blocks the Room that broadcast to it.
+ * </p>
+ */
+public class SocketConnection implements Connection, Runnable {
+    // virtual so a writer blocked on a slow client costs next to nothing
+    private static final ThreadFactory WRITERS = Thread.ofVirtual().name("client-writer-", 1).factory();
+
+    private final Socket client; // communication directly to "my" client
+    private final ServerConfig.Wire wire;
+    private final int codecBits;
+    private final OutboundQueue outbound;
+    private final long streamResetBytes;
+    private final int streamResetObjects;
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(false);
+    private ResettingObjectOutputStream out; // stream wire
+    private ObjectInputStream in;
+    private DataOutputStream framedOut; // framed wire
+    private DataInputStream framedIn;
+    private PayloadCodec codec;
+    private volatile boolean isRunning = false; // control variable to stop the read loop
+    private BaseServerThread owner;
+
+    /**
+     * @param client the accepted socket
+     * @param config wire, codecs and outbound queue settings
+     */
+    protected SocketConnection(Socket client, ServerConfig config) {
+        this.client = client;
+        this.wire = config.getWire();
+        this.codecBits = config.getCodecBits();
+        this.outbound = config.newOutboundQueue();
+        this.streamResetBytes = config.getStreamResetBytes();
+        this.streamResetObjects = config.getStreamResetObjects();
+    }
+
+    @Override
+    public void bind(BaseServerThread owner) {
+        this.owner = owner;
+    }
+
+    @Override
+    public boolean send(EncodedPayload payload) {
+        if (!isRunning) {
+            return true;
+        }
+        if (!outbound.offer(payload)) {
+            LoggerUtil.INSTANCE.warning("Client isn't keeping up (%s queued), disconnecting", outbound.size());
+            return false;
+        }
+        if (writerScheduled.compareAndSet(false, true)) {
+            WRITERS.newThread(this::drain).start();
+        }
+        return true;
+    }
+
+    /**
+     * Writes everything queued and flushes once per batch. Only one writer runs
+     * at a time per connection (guarded by writerScheduled).
+     */
+    private void drain() {
+        try {
+            do {
+                EncodedPayload next;
+                while ((next = outbound.poll()) != null) {
+                    write(next);
+                }
+                if (framedOut != null) {
+                    framedOut.flush();
+                } else {
+                    out.flush();
+                }
+                writerScheduled.set(false);
+                // something may have been queued after the last poll but before the flag was cleared
+            } while (outbound.size() > 0 && writerScheduled.compareAndSet(false, true));
+        } catch (IOException e) {
+            // comment this out to inspect the stack trace
+            // e.printStackTrace();
+            LoggerUtil.INSTANCE.info("Write failed, client most likely disconnected");
+            close(); // the read loop notices and cleans up the owner
+        }
+    }
+
+    private void write(EncodedPayload payload) throws IOException {
+        if (codec != null) {
+            byte[] frame;
+            try {
+                frame = payload.frame(codec); // encoded once, shared with the other recipients
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.severe("Failed to encode payload: " + payload, e);
+                return; // the connection itself is still fine
+            }
+            framedOut.write(frame);
+        } else {
+            int handles = out.getRetainedHandles();
+            long resets = out.getResetCount();
+            out.writePayload(payload.getPayload());
+            if (out.getResetCount() != resets) {
+                ServerMetrics.INSTANCE.onStreamReset();
+                ServerMetrics.INSTANCE.onRetainedHandles(-handles);
+            } else {
+                ServerMetrics.INSTANCE.onRetainedHandles(out.getRetainedHandles() - handles);
+            }
+        }
+    }
+
+    /**
+     * Gets the objects the stream wire's ObjectOutputStream is holding on to.
+     *
+     * @return the retained handle count (0 for the framed wire)
+     */
+    protected int getRetainedHandles() {
+        ResettingObjectOutputStream stream = out;
+        return stream == null ? 0 : stream.getRetainedHandles();
+    }
+
+    /**
+     * Gets this connection's outbound queue (depth and drop counts).
+     *
+     * @return the outbound queue
+     */
+    protected OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isRunning;
+    }
+
+    /**
+     * One of the two ways to get the read loop to exit; closing the socket
+     * breaks out of the blocking read
+     */
+    @Override
+    public void close() {
+        isRunning = false;
+        outbound.clear();
+        try {
+            client.close();
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.info("Client already closed");
+        }
+    }
+
+    /**
+     * Sets up the streams for the configured wire. For the framed wire this
+     * sends the hello and waits for the client's codec choice.
+     *
+     * @throws IOException
+     */
+    private void open() throws IOException {
+        if (wire == ServerConfig.Wire.STREAM) {
+            // resets on a budget so the handle table doesn't keep every payload reachable
+            out = new ResettingObjectOutputStream(client.getOutputStream(), streamResetBytes, streamResetObjects);
+            in = new ObjectInputStream(client.getInputStream());
+            return;
+        }
+        framedOut = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+        framedIn = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+        framedOut.write(PayloadFraming.hello(codecBits));
+        framedOut.flush();
+        int choice = framedIn.readUnsignedByte();
+        PayloadCodec chosen = PayloadFraming.forId(choice);
+        if (chosen == null || (codecBits & PayloadFraming.bitFor(chosen)) == 0) {
+            throw new IOException("Client picked an unsupported codec: " + choice);
+        }
+        codec = chosen;
+        owner.info("Negotiated codec %s", codec.getName());
+    }
+
+    /**
+     * Blocking read of the next payload
+     *
+     * @return the payload
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private Payload read() throws IOException, ClassNotFoundException {
+        if (codec != null) {
+            return PayloadFraming.read(framedIn, codec);
+        }
+        return (Payload) in.readObject();
+    }
+
+    @Override
+    public void run() {
+        owner.info("Thread starting");
+        try {
+            open();
+            isRunning = true;
+            Payload fromClient;
+            /**
+             * isRunning is a flag to let us manage the loop exit condition
+             * fromClient (read()) is a blocking method that waits until data is received
+             *  - null would likely mean a disconnect so we use a "set and check" logic to alternatively exit the loop
+             */
+            while (isRunning) {
+                try {
+                    fromClient = read(); // blocking method
+                    if (fromClient != null) {
+                        owner.receive(fromClient);
+                    } else {
+                        throw new IOException("Connection interrupted"); // Specific exception for a clean break
+                    }
+                } catch (ClassCastException | ClassNotFoundException cce) {
+                    LoggerUtil.INSTANCE.severe("Error reading object as specified type: ", cce);
+                } catch (IOException e) {
+                    if (!isRunning) {
+                        owner.info("Socket closed during read (likely from the disconnect() method)");
+                        break;
+                    }
+                    LoggerUtil.INSTANCE.severe("IO exception while reading from client", e);
+                    break;
+                }
+            } // close while loop
+        } catch (Exception e) {
+            // happens when client disconnects
+            LoggerUtil.INSTANCE.severe("General Exception: ", e);
+            owner.info("My Client disconnected");
+        } finally {
+            isRunning = false;
+            if (out != null) {
+                owner.info(String.format("Stream retained %s handles, reset %s times", out.getRetainedHandles(),
+                        out.getResetCount()));
+                ServerMetrics.INSTANCE.onRetainedHandles(-out.getRetainedHandles());
+            }
+            owner.info("Exited thread loop. Cleaning up connection");
+            close();
+            owner.onConnectionClosed();
+        }
+    }
+}
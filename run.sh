@@ -4,7 +4,7 @@ input=$(echo "$2" | tr '[:upper:]' '[:lower:]')
 port=${3:-3000}  # Default port to 3000 if not provided
 
 if [ "$input" = "server" ]; then
-    java $1.Server.Server $port
+    java $1.Server.Server $port "${@:4}" # optional flags, i.e. --engine=nio
 elif [ "$input" = "client" ]; then
     java $1.Client.Client
     # In Milestone3 changes Client to ClientUI